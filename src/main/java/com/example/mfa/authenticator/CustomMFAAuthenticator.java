@@ -7,14 +7,34 @@ import org.keycloak.authentication.Authenticator;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.AuthenticationManager;
 import com.example.mfa.config.MFAConfig;
 import com.example.mfa.event.AuthEvent;
 import com.example.mfa.event.AuthEventManager;
 import com.example.mfa.factory.MFAProviderFactory;
+import com.example.mfa.provider.CodeExpiredException;
 import com.example.mfa.provider.MFAException;
 import com.example.mfa.provider.MFAProvider;
 import com.example.mfa.provider.TOTPProvider;
+import com.example.mfa.service.ChannelHealthMonitor;
+import com.example.mfa.service.OutboundScheduler.Priority;
+import com.example.mfa.service.TelegramLinkStore;
+import com.example.mfa.stats.ChannelStatsRegistry;
+import com.example.mfa.util.AttemptLimiter;
+import com.example.mfa.util.MFAFlowState;
+import com.example.mfa.util.MFAFlowState.Field;
+import com.example.mfa.util.MFAProfile;
+import com.example.mfa.util.OTPGenerator;
+import com.example.mfa.util.ServerTiming;
+import com.example.mfa.util.ServerTiming.Stage;
 import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Main authenticator class refactored to use multiple design patterns:
@@ -31,21 +51,37 @@ public class CustomMFAAuthenticator implements Authenticator {
     private static final String TEMPLATE_CONFIG = "mfa-config.ftl";
     private static final String TEMPLATE_CODE = "mfa-code.ftl";
     
-    // Auth states
-    private static final String AUTH_STATE = "auth_state";
-    private static final String STATE_METHOD_SELECT = "METHOD_SELECT";
-    private static final String STATE_METHOD_CONFIG = "METHOD_CONFIG";
-    private static final String STATE_CODE_VALIDATION = "CODE_VALIDATION";
+    // Auth states, kept short as they are stored in the flow state note
+    private static final String STATE_METHOD_SELECT = "S";
+    private static final String STATE_METHOD_CONFIG = "C";
+    private static final String STATE_CODE_VALIDATION = "V";
+    
+    // User session note, value: <method>:<epoch seconds of completion>
+    private static final String NOTE_MFA_SATISFIED = "mfa_satisfied";
+    
+    // Single-use object marking a recent automatic send to a user
+    private static final String AUTO_SEND_KEY_PREFIX = "mfa-autosend:";
     
-    // Session notes
-    private static final String NOTE_CHOSEN_METHOD = "chosen_method";
+    // Form parameters
+    private static final String FORM_REMEMBER_DEVICE = "remember-device";
+    private static final String FORM_TELEGRAM_LINK_POLL = "telegram-link-poll";
+    private static final String FORM_HEDGE = "hedge";
+    private static final String FORM_SWITCH_METHOD = "switch-method";
+    // A hedge request may arrive this much before its delay, the browser timer is not exact
+    private static final long HEDGE_TOLERANCE_MILLIS = 1000L;
+    
+    private static final String[] METHODS = {"sms", "telegram", "email", "totp"};
     
     private final MFAProviderFactory providerFactory;
     private final AuthEventManager eventManager;
+    private final AttemptLimiter attemptLimiter;
+    private final ChannelStatsRegistry channelStats;
     
     public CustomMFAAuthenticator() {
         this.providerFactory = MFAProviderFactory.getInstance();
         this.eventManager = AuthEventManager.getInstance();
+        this.attemptLimiter = AttemptLimiter.getInstance();
+        this.channelStats = ChannelStatsRegistry.getInstance();
     }
     
     @Override
@@ -56,9 +92,24 @@ public class CustomMFAAuthenticator implements Authenticator {
             return;
         }
 
-        String state = context.getAuthenticationSession().getAuthNote(AUTH_STATE);
+        String state = MFAFlowState.get(context).get(Field.STATE);
         if (state == null) {
-            showMethodSelection(context, user);
+            String satisfiedMethod = getSatisfiedMethod(context, user);
+            if (satisfiedMethod != null) {
+                logger.debug("Reusing MFA completed in SSO session for user: " + user.getUsername());
+                fireVerificationSucceededEvent(context, user, satisfiedMethod);
+                context.success();
+                return;
+            }
+            if (isTrustedDevice(context, user)) {
+                fireVerificationSucceededEvent(context, user, "trusted_device");
+                markSatisfied(context, "trusted_device");
+                context.success();
+                return;
+            }
+            if (!sendToPreferredMethod(context, user)) {
+                showMethodSelection(context, user);
+            }
             return;
         }
 
@@ -67,11 +118,11 @@ public class CustomMFAAuthenticator implements Authenticator {
                 showMethodConfiguration(context, user);
                 break;
             case STATE_CODE_VALIDATION:
-                String method = context.getAuthenticationSession().getAuthNote(NOTE_CHOSEN_METHOD);
+                String method = MFAFlowState.get(context).get(Field.METHOD);
                 try {
-                    MFAProvider provider = providerFactory.createProvider(method, context.getAuthenticatorConfig());
+                    MFAProvider provider = createProvider(context, method);
                     
-                    if (!provider.isConfiguredFor(user)) {
+                    if (!isConfiguredFor(context, provider, user)) {
                         logger.warn("User attempted to use MFA method that's not configured: " + user.getUsername());
                         context.form().setError("configError", "MFA method not properly configured");
                         showMethodSelection(context, user);
@@ -81,11 +132,10 @@ public class CustomMFAAuthenticator implements Authenticator {
                     // Fire event
                     fireVerificationStartedEvent(context, user, method);
 
-                    context.form().setAttribute("method", method);
                     
                     // Send verification code
-                    provider.sendVerificationCode(context, user);
-                    context.challenge(context.form().createForm(TEMPLATE_CODE));
+                    sendCode(context, user, provider, method, Priority.LOGIN);
+                    context.challenge(createCodeForm(context, method));
                 } catch (MFAException e) {
                     logger.error("Error sending verification code", e);
                     context.form().setError("sendError", "Failed to send verification code");
@@ -98,22 +148,135 @@ public class CustomMFAAuthenticator implements Authenticator {
         }
     }
 
+    /**
+     * Send the code over the user's last successful method, skipping the selection page
+     * Locked out users get the lockout page, nothing is sent. Returns false when there is
+     * no usable preferred method or the user got an automatic send within the cooldown
+     */
+    private boolean sendToPreferredMethod(AuthenticationFlowContext context, UserModel user) {
+        MFAConfig config = getConfig(context);
+        String method = MFAProfile.get(user, config.isProfileStorageEnabled())
+            .get(MFAProfile.Field.PREFERRED_METHOD);
+        if (method == null || !Arrays.asList(METHODS).contains(method) || !config.isAutoSendPreferredEnabled()
+                || ChannelHealthMonitor.getInstance().isMethodDown(context.getRealm().getId(), method)) {
+            return false;
+        }
+        
+        try {
+            MFAProvider provider = createProvider(context, method);
+            if (!isConfiguredFor(context, provider, user)
+                    || ("totp".equals(method) && ((TOTPProvider) provider).shouldSetupTOTP(user))) {
+                return false;
+            }
+            
+            MFAFlowState state = MFAFlowState.get(context);
+            state.set(Field.METHOD, method);
+            state.set(Field.STATE, STATE_CODE_VALIDATION);
+            if (attemptLimiter.isLocked(context.getSession(), AttemptLimiter.key(context.getRealm().getId(), user.getId()))) {
+                fireThrottledEvent(context, user, method, "User temporarily locked out");
+                challengeLockedOut(context, method);
+                return true;
+            }
+            if (!"totp".equals(method) && !claimAutoSend(context, user, config)) {
+                state.set(Field.STATE, STATE_METHOD_SELECT);
+                return false;
+            }
+            
+            fireVerificationStartedEvent(context, user, method);
+            sendCode(context, user, provider, method, Priority.LOGIN);
+            context.challenge(createCodeForm(context, method));
+            return true;
+        } catch (MFAException e) {
+            logger.warn("Could not send code over preferred method " + method + ": " + e.getMessage());
+            context.form().setError("sendError", "Failed to send verification code");
+            return false;
+        }
+    }
+    
+    /**
+     * Claim the user's automatic send for the cooldown, false if another login already did
+     * Logins with only the password must not trigger a paid message each time
+     */
+    private boolean claimAutoSend(AuthenticationFlowContext context, UserModel user, MFAConfig config) {
+        int cooldown = config.getAutoSendCooldown();
+        if (cooldown <= 0) {
+            return true;
+        }
+        String key = AUTO_SEND_KEY_PREFIX + context.getRealm().getId() + ":" + user.getId();
+        return context.getSession().singleUseObjects().putIfAbsent(key, cooldown);
+    }
+    
+    /**
+     * Remember the method that completed MFA, written only when it changed
+     */
+    private void rememberPreferredMethod(AuthenticationFlowContext context, UserModel user, String method) {
+        MFAProfile profile = MFAProfile.get(user, getConfig(context).isProfileStorageEnabled());
+        if (!Arrays.asList(METHODS).contains(method) || method.equals(profile.get(MFAProfile.Field.PREFERRED_METHOD))) {
+            return;
+        }
+        try {
+            profile.set(MFAProfile.Field.PREFERRED_METHOD, method);
+        } catch (Exception e) {
+            // Read-only federated users simply keep seeing the selection page
+            logger.debug("Could not store preferred MFA method for user " + user.getUsername() + ": " + e.getMessage());
+        }
+    }
+    
     private void showMethodSelection(AuthenticationFlowContext context, UserModel user) {
-        context.getAuthenticationSession().setAuthNote(AUTH_STATE, STATE_METHOD_SELECT);
+        MFAFlowState.get(context).set(Field.STATE, STATE_METHOD_SELECT);
         
         // Check which methods are configured
-        boolean smsConfigured = isMethodConfigured(user, "sms");
-        boolean telegramConfigured = isMethodConfigured(user, "telegram");
-        boolean emailConfigured = isMethodConfigured(user, "email");
-        boolean totpConfigured = isMethodConfigured(user, "totp");
+        ServerTiming timing = ServerTiming.get(context);
+        long start = timing.start();
+        List<String> configuredMethods = new ArrayList<>();
+        for (String method : METHODS) {
+            boolean configured = isMethodConfigured(user, method);
+            context.form().setAttribute(method + "_configured", configured);
+            if (configured) {
+                configuredMethods.add(method);
+            }
+        }
+        timing.stop(Stage.CONFIGURED, start);
         
-        context.form()
-            .setAttribute("sms_configured", smsConfigured)
-            .setAttribute("telegram_configured", telegramConfigured)
-            .setAttribute("email_configured", emailConfigured)
-            .setAttribute("totp_configured", totpConfigured);
+        // Pre-select the method most likely to complete fastest
+        String recommended = channelStats.recommend(context.getRealm().getId(), user.getId(), configuredMethods);
+        if (recommended != null) {
+            context.form().setAttribute("recommended_method", recommended);
+        }
         
-        context.challenge(context.form().createForm(TEMPLATE_SELECT));
+        context.challenge(render(context, TEMPLATE_SELECT));
+    }
+    
+    private MFAProvider createProvider(AuthenticationFlowContext context, String method) {
+        ServerTiming timing = ServerTiming.get(context);
+        long start = timing.start();
+        try {
+            return providerFactory.createProvider(method, context.getAuthenticatorConfig());
+        } finally {
+            timing.stop(Stage.PROVIDER, start);
+        }
+    }
+    
+    private boolean isConfiguredFor(AuthenticationFlowContext context, MFAProvider provider, UserModel user) {
+        ServerTiming timing = ServerTiming.get(context);
+        long start = timing.start();
+        try {
+            return provider.isConfiguredFor(user);
+        } finally {
+            timing.stop(Stage.CONFIGURED, start);
+        }
+    }
+    
+    /**
+     * Render a template, adding the Server-Timing header when enabled
+     */
+    private Response render(AuthenticationFlowContext context, String template) {
+        ServerTiming timing = ServerTiming.get(context);
+        long start = timing.start();
+        Response response = context.form().createForm(template);
+        timing.stop(Stage.RENDER, start);
+        timing.writeHeader(context);
+        return response;
     }
     
     private boolean isMethodConfigured(UserModel user, String method) {
@@ -127,20 +290,61 @@ public class CustomMFAAuthenticator implements Authenticator {
     }
 
     private void showMethodConfiguration(AuthenticationFlowContext context, UserModel user) {
-        String method = context.getAuthenticationSession().getAuthNote(NOTE_CHOSEN_METHOD);
+        String method = MFAFlowState.get(context).get(Field.METHOD);
         if (method == null) {
             showMethodSelection(context, user);
             return;
         }
 
+        if ("telegram".equals(method)) {
+            prepareTelegramLink(context, user);
+        }
         context.form().setAttribute("method", method);
-        context.challenge(context.form().createForm(TEMPLATE_CONFIG));
+        context.challenge(render(context, TEMPLATE_CONFIG));
+    }
+    
+    /**
+     * Offer a t.me deep link that enrolls the user's chat without copying its id
+     */
+    private void prepareTelegramLink(AuthenticationFlowContext context, UserModel user) {
+        String botUsername = getConfig(context).getTelegramBotUsername();
+        if (botUsername == null || botUsername.isEmpty()) {
+            return;
+        }
+        
+        MFAFlowState state = MFAFlowState.get(context);
+        String token = state.get(Field.TELEGRAM_LINK);
+        if (token == null || !TelegramLinkStore.isPending(context.getSession(), token)) {
+            token = TelegramLinkStore.issue(context.getSession(), context.getRealm(), user,
+                context.getAuthenticationSession());
+            state.set(Field.TELEGRAM_LINK, token);
+        }
+        context.form().setAttribute("telegram_link", "https://t.me/" + botUsername + "?start=" + token);
+    }
+    
+    /**
+     * Get the chat bound through the deep link by the webhook, null while none is bound
+     */
+    private String getLinkedTelegramChat(AuthenticationFlowContext context, UserModel user) {
+        String token = MFAFlowState.get(context).get(Field.TELEGRAM_LINK);
+        return token != null
+            ? TelegramLinkStore.getChatId(context.getSession(), user, context.getAuthenticationSession(), token)
+            : null;
+    }
+    
+    private void releaseTelegramLink(AuthenticationFlowContext context) {
+        MFAFlowState state = MFAFlowState.get(context);
+        String token = state.get(Field.TELEGRAM_LINK);
+        if (token != null) {
+            TelegramLinkStore.consume(context.getSession(), token);
+            state.remove(Field.TELEGRAM_LINK);
+        }
     }
 
     @Override
     public void action(AuthenticationFlowContext context) {
         UserModel user = context.getUser();
-        String state = context.getAuthenticationSession().getAuthNote(AUTH_STATE);
+        String state = MFAFlowState.get(context).get(Field.STATE);
         
         if (state == null || user == null) {
             context.failure(AuthenticationFlowError.INTERNAL_ERROR);
@@ -173,8 +377,8 @@ public class CustomMFAAuthenticator implements Authenticator {
         }
 
         try {
-            MFAProvider provider = providerFactory.createProvider(method, context.getAuthenticatorConfig());
-            context.getAuthenticationSession().setAuthNote(NOTE_CHOSEN_METHOD, method);
+            MFAProvider provider = createProvider(context, method);
+            MFAFlowState.get(context).set(Field.METHOD, method);
 
             if ("totp".equals(method)) {
                 TOTPProvider totpProvider = (TOTPProvider) provider;
@@ -193,17 +397,16 @@ public class CustomMFAAuthenticator implements Authenticator {
                 }
             }
 
-            if (provider.isConfiguredFor(user)) {
-                context.getAuthenticationSession().setAuthNote(AUTH_STATE, STATE_CODE_VALIDATION);
+            if (isConfiguredFor(context, provider, user)) {
+                MFAFlowState.get(context).set(Field.STATE, STATE_CODE_VALIDATION);
                 
                 // Fire event
                 fireVerificationStartedEvent(context, user, method);
                 
-                provider.sendVerificationCode(context, user);
-                context.form().setAttribute("method", method);
-                context.challenge(context.form().createForm(TEMPLATE_CODE));
+                sendCode(context, user, provider, method, Priority.LOGIN);
+                context.challenge(createCodeForm(context, method));
             } else {
-                context.getAuthenticationSession().setAuthNote(AUTH_STATE, STATE_METHOD_CONFIG);
+                MFAFlowState.get(context).set(Field.STATE, STATE_METHOD_CONFIG);
                 showMethodConfiguration(context, user);
             }
         } catch (Exception e) {
@@ -215,14 +418,14 @@ public class CustomMFAAuthenticator implements Authenticator {
 
     private void handleMethodConfiguration(AuthenticationFlowContext context, UserModel user, 
                                          MultivaluedMap<String, String> formData) {
-        String method = context.getAuthenticationSession().getAuthNote(NOTE_CHOSEN_METHOD);
+        String method = MFAFlowState.get(context).get(Field.METHOD);
         if (method == null) {
             showMethodSelection(context, user);
             return;
         }
         
         try {
-            MFAProvider provider = providerFactory.createProvider(method, context.getAuthenticatorConfig());
+            MFAProvider provider = createProvider(context, method);
             
             // Get the appropriate config value from form data based on method
             String configValue = null;
@@ -232,6 +435,14 @@ public class CustomMFAAuthenticator implements Authenticator {
                     break;
                 case "telegram":
                     configValue = formData.getFirst("telegramId");
+                    if (configValue == null || configValue.trim().isEmpty()) {
+                        configValue = getLinkedTelegramChat(context, user);
+                        if (configValue == null && formData.containsKey(FORM_TELEGRAM_LINK_POLL)) {
+                            // The page polls until the user has opened the deep link
+                            showMethodConfiguration(context, user);
+                            return;
+                        }
+                    }
                     break;
                 case "email":
                     configValue = formData.getFirst("email");
@@ -251,13 +462,16 @@ public class CustomMFAAuthenticator implements Authenticator {
             boolean configured = provider.configure(context, user, configValue);
             
             if (configured) {
+                if ("telegram".equals(method)) {
+                    releaseTelegramLink(context);
+                }
+                
                 // Fire event
                 fireSetupCompletedEvent(context, user, method);
                 
-                context.getAuthenticationSession().setAuthNote(AUTH_STATE, STATE_CODE_VALIDATION);
-                context.form().setAttribute("method", method);
-                provider.sendVerificationCode(context, user);
-                context.challenge(context.form().createForm(TEMPLATE_CODE));
+                MFAFlowState.get(context).set(Field.STATE, STATE_CODE_VALIDATION);
+                sendCode(context, user, provider, method, Priority.ENROLLMENT);
+                context.challenge(createCodeForm(context, method));
             } else {
                 context.form().setError("configError", "Invalid configuration value");
                 showMethodConfiguration(context, user);
@@ -271,38 +485,310 @@ public class CustomMFAAuthenticator implements Authenticator {
 
     private void handleCodeValidation(AuthenticationFlowContext context, UserModel user, 
                                    MultivaluedMap<String, String> formData) {
+        String method = MFAFlowState.get(context).get(Field.METHOD);
+        if (formData.containsKey(FORM_HEDGE)) {
+            handleHedge(context, user, method);
+            return;
+        }
+        if (formData.containsKey(FORM_SWITCH_METHOD)) {
+            MFAFlowState.get(context).remove(Field.HEDGE);
+            showMethodSelection(context, user);
+            return;
+        }
+        
         String enteredCode = formData.getFirst("code");
         if (enteredCode == null || enteredCode.trim().isEmpty()) {
             context.form().setError("invalidCode", "Invalid verification code");
-            context.challenge(context.form().createForm(TEMPLATE_CODE));
+            context.challenge(createCodeForm(context, method));
             return;
         }
 
-        String method = context.getAuthenticationSession().getAuthNote(NOTE_CHOSEN_METHOD);
+        String lockKey = AttemptLimiter.key(context.getRealm().getId(), user.getId());
+        
+        // Locked out users are rejected before any provider (and upstream) call
+        if (attemptLimiter.isLocked(context.getSession(), lockKey)) {
+            fireThrottledEvent(context, user, method, "User temporarily locked out");
+            challengeLockedOut(context, method);
+            return;
+        }
         
         try {
-            MFAProvider provider = providerFactory.createProvider(method, context.getAuthenticatorConfig());
-            boolean isValid = provider.verifyCode(context, user, enteredCode);
+            MFAProvider provider = createProvider(context, method);
+            ServerTiming timing = ServerTiming.get(context);
+            long timingStart = timing.start();
+            long start = System.currentTimeMillis();
+            // A hedge code is checked locally first, it must not cost an upstream verification
+            String verifiedMethod = getHedgeMethod(context, enteredCode.trim());
+            boolean isValid = verifiedMethod != null || provider.verifyCode(context, user, enteredCode.trim());
+            long duration = System.currentTimeMillis() - start;
+            timing.stop(Stage.VERIFY, timingStart);
 
             if (isValid) {
+                if (verifiedMethod == null) {
+                    verifiedMethod = method;
+                    recordCodeVerified(context, user, method);
+                } else {
+                    // The hedge won, the primary delivery counts as failed for channel statistics
+                    recordAbandonedCode(context, user);
+                }
+                
                 // Fire event
-                fireVerificationSucceededEvent(context, user, method);
+                fireTimedEvent(context, user, verifiedMethod, AuthEvent.EventType.MFA_VERIFICATION_SUCCEEDED, duration, null);
                 
+                attemptLimiter.reset(context.getSession(), lockKey);
+                MFAFlowState.get(context).remove(Field.FAILED_ATTEMPTS);
+                markSatisfied(context, verifiedMethod);
+                rememberPreferredMethod(context, user, verifiedMethod);
+                MFAConfig config = getConfig(context);
+                if (config.isTrustedDeviceEnabled() && "on".equals(formData.getFirst(FORM_REMEMBER_DEVICE))) {
+                    new TrustedDeviceCookie(context, config).issue(user);
+                }
                 context.success();
             } else {
                 // Fire event
-                fireVerificationFailedEvent(context, user, method, "Invalid code");
+                fireTimedEvent(context, user, method, AuthEvent.EventType.MFA_VERIFICATION_FAILED, duration, "Invalid code");
                 
-                context.form().setError("invalidCode", "Invalid verification code");
-                context.form().setAttribute("method", method);
-                context.challenge(context.form().createForm(TEMPLATE_CODE));
+                handleFailedAttempt(context, user, method, lockKey);
             }
+        } catch (CodeExpiredException e) {
+            // Not a failed attempt, the code has to be requested again through the normal send path
+            logger.info("Code of " + user.getUsername() + " can no longer be checked: " + e.getMessage());
+            MFAFlowState.get(context).remove(Field.FAILED_ATTEMPTS);
+            context.form().setError("codeExpired");
+            showMethodSelection(context, user);
         } catch (Exception e) {
             logger.error("Error during code validation", e);
             context.form().setError("validationError", "Error validating code");
-            context.form().setAttribute("method", method);
-            context.challenge(context.form().createForm(TEMPLATE_CODE));
+            context.challenge(createCodeForm(context, method));
+        }
+    }
+    
+    /**
+     * Send a code through the provider and track its delivery for channel statistics
+     */
+    private void sendCode(AuthenticationFlowContext context, UserModel user, MFAProvider provider, String method,
+                          Priority priority) throws MFAException {
+        recordAbandonedCode(context, user);
+        // A new code gets a new hedge budget, the old hedge code is no longer valid
+        MFAFlowState.get(context).remove(Field.HEDGE);
+        long start = System.currentTimeMillis();
+        try {
+            provider.sendVerificationCode(context, user, priority);
+        } catch (MFAException e) {
+            channelStats.recordFailure(context.getRealm().getId(), user.getId(), method);
+            fireTimedEvent(context, user, method, AuthEvent.EventType.MFA_CODE_SEND_FAILED,
+                System.currentTimeMillis() - start, e.getMessage());
+            throw e;
+        }
+        fireTimedEvent(context, user, method, AuthEvent.EventType.MFA_CODE_SENT,
+            System.currentTimeMillis() - start, null);
+        MFAFlowState.get(context).set(Field.CODE_SENT, method + ":" + System.currentTimeMillis());
+    }
+    
+    /**
+     * Send one sibling code on a second channel when the primary delivery is slow
+     * Requested by the code form once the primary channel's hedge delay has passed
+     */
+    private void handleHedge(AuthenticationFlowContext context, UserModel user, String method) {
+        String hedgeMethod = isHedgeDue(context, method)
+            ? new HedgingPolicy(getConfig(context)).chooseChannel(context.getRealm().getId(), user, method)
+            : null;
+        
+        if (hedgeMethod != null) {
+            String hedgeCode = OTPGenerator.getInstance().generateOTP();
+            long start = System.currentTimeMillis();
+            try {
+                MFAProvider hedgeProvider = createProvider(context, hedgeMethod);
+                if (hedgeProvider.sendHedgeCode(context, user, hedgeCode)) {
+                    MFAFlowState.get(context).set(Field.HEDGE, hedgeMethod + ":" + hedgeCode);
+                    fireTimedEvent(context, user, hedgeMethod, AuthEvent.EventType.MFA_CODE_SENT,
+                        System.currentTimeMillis() - start, "Hedge for " + method);
+                    context.form().setInfo("hedgeCodeSent", hedgeProvider.getDisplayName());
+                }
+            } catch (MFAException e) {
+                logger.warn("Hedge delivery via " + hedgeMethod + " failed: " + e.getMessage());
+                fireTimedEvent(context, user, hedgeMethod, AuthEvent.EventType.MFA_CODE_SEND_FAILED,
+                    System.currentTimeMillis() - start, e.getMessage());
+            }
+        }
+        context.challenge(createCodeForm(context, method));
+    }
+    
+    /**
+     * Check if hedging is enabled, not used yet for the current code and its delay has passed
+     */
+    private boolean isHedgeDue(AuthenticationFlowContext context, String method) {
+        MFAConfig config = getConfig(context);
+        long sentAt = getSentAt(context);
+        if (!config.isHedgingEnabled() || sentAt <= 0 || MFAFlowState.get(context).get(Field.HEDGE) != null) {
+            return false;
         }
+        long delay = new HedgingPolicy(config).getDelayMillis(context.getRealm().getId(), method);
+        return System.currentTimeMillis() - sentAt + HEDGE_TOLERANCE_MILLIS >= delay;
+    }
+    
+    /**
+     * Get the channel of the hedge code if the entered code is it, null otherwise
+     */
+    private String getHedgeMethod(AuthenticationFlowContext context, String enteredCode) {
+        String hedge = MFAFlowState.get(context).get(Field.HEDGE);
+        int separator = hedge != null ? hedge.indexOf(':') : -1;
+        if (separator <= 0) {
+            return null;
+        }
+        boolean matches = MessageDigest.isEqual(hedge.substring(separator + 1).getBytes(StandardCharsets.UTF_8),
+            enteredCode.getBytes(StandardCharsets.UTF_8));
+        return matches ? hedge.substring(0, separator) : null;
+    }
+    
+    private long getSentAt(AuthenticationFlowContext context) {
+        String sent = MFAFlowState.get(context).get(Field.CODE_SENT);
+        try {
+            return sent != null ? Long.parseLong(sent.substring(sent.lastIndexOf(':') + 1)) : 0L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+    
+    /**
+     * A code that is replaced before being verified counts as a failed delivery
+     */
+    private void recordAbandonedCode(AuthenticationFlowContext context, UserModel user) {
+        String sent = MFAFlowState.get(context).get(Field.CODE_SENT);
+        if (sent != null) {
+            channelStats.recordFailure(context.getRealm().getId(), user.getId(), sent.substring(0, sent.lastIndexOf(':')));
+            MFAFlowState.get(context).remove(Field.CODE_SENT);
+        }
+    }
+    
+    private void recordCodeVerified(AuthenticationFlowContext context, UserModel user, String method) {
+        String sent = MFAFlowState.get(context).get(Field.CODE_SENT);
+        if (sent == null) {
+            return;
+        }
+        try {
+            long sentAt = Long.parseLong(sent.substring(sent.lastIndexOf(':') + 1));
+            channelStats.recordSuccess(context.getRealm().getId(), user.getId(), method,
+                System.currentTimeMillis() - sentAt);
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring malformed code sent state: " + sent);
+        }
+        MFAFlowState.get(context).remove(Field.CODE_SENT);
+    }
+    
+    /**
+     * Count a failed attempt against both the session and the user
+     */
+    private void handleFailedAttempt(AuthenticationFlowContext context, UserModel user, String method, String lockKey) {
+        MFAConfig config = getConfig(context);
+        
+        boolean locked = attemptLimiter.recordFailure(context.getSession(), lockKey,
+            attemptThreshold(context, config.getUserLockoutThreshold()), config.getLockoutDuration());
+        if (locked) {
+            logger.warn("User temporarily locked out after repeated MFA failures: " + user.getUsername());
+            fireThrottledEvent(context, user, method, "Lockout threshold reached");
+            MFAFlowState.get(context).remove(Field.FAILED_ATTEMPTS);
+            challengeLockedOut(context, method);
+            return;
+        }
+        
+        int sessionFailures = getSessionFailures(context) + 1;
+        if (sessionFailures >= attemptThreshold(context, config.getMaxFailedAttempts())) {
+            // The current code is burnt, a new one has to be requested
+            logger.info("Maximum attempts reached for current code, user: " + user.getUsername());
+            fireThrottledEvent(context, user, method, "Maximum attempts per code reached");
+            MFAFlowState.get(context).remove(Field.FAILED_ATTEMPTS);
+            context.form().setError("tooManyAttempts");
+            showMethodSelection(context, user);
+            return;
+        }
+        
+        MFAFlowState.get(context).setInt(Field.FAILED_ATTEMPTS, sessionFailures);
+        context.form().setError("invalidCode", "Invalid verification code");
+        context.challenge(createCodeForm(context, method));
+    }
+    
+    /**
+     * Halve an attempt threshold while a hedge code is outstanding, each guess is then checked against two codes
+     */
+    private static int attemptThreshold(AuthenticationFlowContext context, int threshold) {
+        return threshold > 0 && MFAFlowState.get(context).get(Field.HEDGE) != null ? Math.max(1, threshold / 2) : threshold;
+    }
+    
+    private int getSessionFailures(AuthenticationFlowContext context) {
+        return MFAFlowState.get(context).getInt(Field.FAILED_ATTEMPTS);
+    }
+    
+    /**
+     * Render the code entry form for the chosen method
+     */
+    private Response createCodeForm(AuthenticationFlowContext context, String method) {
+        MFAConfig config = getConfig(context);
+        context.form().setAttribute("method", method);
+        context.form().setAttribute("trusted_device_enabled", config.isTrustedDeviceEnabled());
+        if (config.isHedgingEnabled() && !"totp".equals(method) && MFAFlowState.get(context).get(Field.HEDGE) == null
+                && getSentAt(context) > 0) {
+            HedgingPolicy policy = new HedgingPolicy(config);
+            if (policy.chooseChannel(context.getRealm().getId(), context.getUser(), method) != null) {
+                long remaining = getSentAt(context) + policy.getDelayMillis(context.getRealm().getId(), method)
+                    - System.currentTimeMillis();
+                context.form().setAttribute("hedge_after_ms", Math.max(0L, remaining));
+            }
+        }
+        return render(context, TEMPLATE_CODE);
+    }
+    
+    private MFAConfig getConfig(AuthenticationFlowContext context) {
+        return new MFAConfig(context.getAuthenticatorConfig());
+    }
+    
+    /**
+     * Record on the (future) user session that MFA was completed now
+     */
+    private void markSatisfied(AuthenticationFlowContext context, String method) {
+        context.getAuthenticationSession().setUserSessionNote(NOTE_MFA_SATISFIED,
+            method + ":" + (System.currentTimeMillis() / 1000L));
+    }
+    
+    /**
+     * Get the method of an MFA completed in the user's SSO session within the reuse window, null otherwise
+     */
+    private String getSatisfiedMethod(AuthenticationFlowContext context, UserModel user) {
+        int maxAge = getConfig(context).getMfaReuseMaxAge();
+        if (maxAge <= 0) {
+            return null;
+        }
+        
+        AuthenticationManager.AuthResult authResult =
+            AuthenticationManager.authenticateIdentityCookie(context.getSession(), context.getRealm(), true);
+        if (authResult == null || authResult.getSession() == null
+                || !user.getId().equals(authResult.getSession().getUser().getId())) {
+            return null;
+        }
+        
+        String marker = authResult.getSession().getNote(NOTE_MFA_SATISFIED);
+        int separator = marker != null ? marker.lastIndexOf(':') : -1;
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            long completedAt = Long.parseLong(marker.substring(separator + 1));
+            long age = System.currentTimeMillis() / 1000L - completedAt;
+            return age >= 0 && age <= maxAge ? marker.substring(0, separator) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private boolean isTrustedDevice(AuthenticationFlowContext context, UserModel user) {
+        MFAConfig config = getConfig(context);
+        return config.isTrustedDeviceEnabled() && new TrustedDeviceCookie(context, config).isTrusted(user);
+    }
+    
+    private void challengeLockedOut(AuthenticationFlowContext context, String method) {
+        context.form().setError("mfaTemporarilyLocked");
+        context.failureChallenge(AuthenticationFlowError.USER_TEMPORARILY_DISABLED,
+            createCodeForm(context, method));
     }
     
     // Event firing methods
@@ -362,9 +848,9 @@ public class CustomMFAAuthenticator implements Authenticator {
         eventManager.fireEvent(event);
     }
     
-    private void fireVerificationFailedEvent(AuthenticationFlowContext context, UserModel user, String method, String reason) {
+    private void fireThrottledEvent(AuthenticationFlowContext context, UserModel user, String method, String reason) {
         AuthEvent event = new AuthEvent.Builder()
-            .type(AuthEvent.EventType.MFA_VERIFICATION_FAILED)
+            .type(AuthEvent.EventType.MFA_THROTTLED)
             .mfaMethod(method)
             .user(user)
             .context(context)
@@ -373,6 +859,20 @@ public class CustomMFAAuthenticator implements Authenticator {
         
         eventManager.fireEvent(event);
     }
+    
+    private void fireTimedEvent(AuthenticationFlowContext context, UserModel user, String method,
+                                AuthEvent.EventType type, long durationMillis, String details) {
+        AuthEvent event = new AuthEvent.Builder()
+            .type(type)
+            .mfaMethod(method)
+            .user(user)
+            .context(context)
+            .details(details)
+            .durationMillis(durationMillis)
+            .build();
+        
+        eventManager.fireEvent(event);
+    }
 
     @Override
     public boolean requiresUser() {
@@ -7,12 +7,22 @@ import org.keycloak.authentication.ConfigurableAuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ProviderEventListener;
 import com.example.mfa.event.AuthEventManager;
+import com.example.mfa.event.EventStoreBridgeListener;
 import com.example.mfa.event.LoggingEventListener;
 import com.example.mfa.config.MFAConfig;
+import com.example.mfa.service.ChannelHealthMonitor;
+import com.example.mfa.service.OutboundScheduler;
+import com.example.mfa.service.ServiceWarmup;
+import com.example.mfa.service.SmsRouter;
+import com.example.mfa.stats.StatsEventListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -25,11 +35,30 @@ public class CustomMFAAuthenticatorFactory implements AuthenticatorFactory, Conf
     public static final String PROVIDER_ID = "custom-mfa-authenticator";
     private static final CustomMFAAuthenticator SINGLETON = new CustomMFAAuthenticator();
     
+    // SPI options, e.g. --spi-authenticator-custom-mfa-authenticator-warmup-enabled=true
+    private static final String OPTION_WARMUP_ENABLED = "warmupEnabled";
+    private static final String OPTION_WARMUP_TIMEOUT = "warmupTimeout";
+    private static final int DEFAULT_WARMUP_TIMEOUT = 30; // seconds
+    private static final String OPTION_HEALTH_PROBE_INTERVAL = "healthProbeInterval";
+    // Seconds, off by default: every node probes every realm's upstreams, which costs their quota
+    private static final int DEFAULT_HEALTH_PROBE_INTERVAL = 0;
+    private static final String OPTION_OUTBOUND_SLOTS = "outboundSlots";
+    private static final String OPTION_EVENT_STORE_ENABLED = "eventStoreEnabled";
+    
+    private boolean warmupEnabled;
+    private int warmupTimeout = DEFAULT_WARMUP_TIMEOUT;
+    private int healthProbeInterval = DEFAULT_HEALTH_PROBE_INTERVAL;
+    private boolean eventStoreEnabled;
+    private EventStoreBridgeListener eventStoreListener;
+    private KeycloakSessionFactory sessionFactory;
+    private ProviderEventListener migrationListener;
+    
     private static final List<ProviderConfigProperty> configProperties = new ArrayList<>();
     
     static {
         // Register the logging event listener
         AuthEventManager.getInstance().addEventListener(new LoggingEventListener());
+        AuthEventManager.getInstance().addEventListener(new StatsEventListener());
         
         logger.info("Initializing CustomMFAAuthenticatorFactory configuration properties");
         
@@ -55,6 +84,76 @@ public class CustomMFAAuthenticatorFactory implements AuthenticatorFactory, Conf
         twilioVerifyServiceSid.setHelpText("Your Twilio Verify Service SID");
         configProperties.add(twilioVerifyServiceSid);
 
+        ProviderConfigProperty twilioFromNumber = new ProviderConfigProperty();
+        twilioFromNumber.setName(MFAConfig.TWILIO_FROM_NUMBER);
+        twilioFromNumber.setLabel("Twilio Sender");
+        twilioFromNumber.setType(ProviderConfigProperty.STRING_TYPE);
+        twilioFromNumber.setHelpText("Twilio phone number or Messaging Service SID (MG...) used to send codes in local verification mode");
+        configProperties.add(twilioFromNumber);
+
+        ProviderConfigProperty twilioBaseUrl = new ProviderConfigProperty();
+        twilioBaseUrl.setName(MFAConfig.TWILIO_BASE_URL);
+        twilioBaseUrl.setLabel("Twilio API Base URL");
+        twilioBaseUrl.setType(ProviderConfigProperty.STRING_TYPE);
+        twilioBaseUrl.setHelpText("Leave empty for Twilio. Set to a local fake server (e.g. http://localhost:8099) for development and load tests");
+        configProperties.add(twilioBaseUrl);
+
+        ProviderConfigProperty smsVerificationMode = new ProviderConfigProperty();
+        smsVerificationMode.setName(MFAConfig.SMS_VERIFICATION_MODE);
+        smsVerificationMode.setLabel("SMS Verification Mode");
+        smsVerificationMode.setType(ProviderConfigProperty.LIST_TYPE);
+        smsVerificationMode.setOptions(Arrays.asList(MFAConfig.SMS_MODE_VERIFY, MFAConfig.SMS_MODE_LOCAL));
+        smsVerificationMode.setDefaultValue(MFAConfig.SMS_MODE_VERIFY);
+        smsVerificationMode.setHelpText("'verify' uses Twilio Verify to send and check codes. "
+            + "'local' sends the generated code as a plain SMS and verifies it without calling Twilio again");
+        configProperties.add(smsVerificationMode);
+
+        // SMS gateway routing
+        ProviderConfigProperty smsGateways = new ProviderConfigProperty();
+        smsGateways.setName(MFAConfig.SMS_GATEWAYS);
+        smsGateways.setLabel("SMS Gateways");
+        smsGateways.setType(ProviderConfigProperty.STRING_TYPE);
+        smsGateways.setDefaultValue(MFAConfig.DEFAULT_SMS_GATEWAYS);
+        smsGateways.setHelpText("Comma separated SMS gateways in priority order (twilio, http). Later gateways are used for failover");
+        configProperties.add(smsGateways);
+
+        ProviderConfigProperty smsRoutingPolicy = new ProviderConfigProperty();
+        smsRoutingPolicy.setName(MFAConfig.SMS_ROUTING_POLICY);
+        smsRoutingPolicy.setLabel("SMS Routing Policy");
+        smsRoutingPolicy.setType(ProviderConfigProperty.LIST_TYPE);
+        smsRoutingPolicy.setOptions(Arrays.asList(SmsRouter.POLICY_PRIORITY, SmsRouter.POLICY_WEIGHTED, SmsRouter.POLICY_LATENCY));
+        smsRoutingPolicy.setDefaultValue(MFAConfig.DEFAULT_SMS_ROUTING_POLICY);
+        smsRoutingPolicy.setHelpText("How the primary gateway is chosen: configured order, weighted random, or lowest recent p95 latency and error rate");
+        configProperties.add(smsRoutingPolicy);
+
+        ProviderConfigProperty smsGatewayWeights = new ProviderConfigProperty();
+        smsGatewayWeights.setName(MFAConfig.SMS_GATEWAY_WEIGHTS);
+        smsGatewayWeights.setLabel("SMS Gateway Weights");
+        smsGatewayWeights.setType(ProviderConfigProperty.STRING_TYPE);
+        smsGatewayWeights.setHelpText("Weights for the weighted policy, e.g. twilio=3,http=1");
+        configProperties.add(smsGatewayWeights);
+
+        ProviderConfigProperty smsCountryRoutes = new ProviderConfigProperty();
+        smsCountryRoutes.setName(MFAConfig.SMS_COUNTRY_ROUTES);
+        smsCountryRoutes.setLabel("SMS Country Routes");
+        smsCountryRoutes.setType(ProviderConfigProperty.STRING_TYPE);
+        smsCountryRoutes.setHelpText("Phone prefixes pinned to a gateway, e.g. +91=http,+1=twilio. The longest matching prefix wins");
+        configProperties.add(smsCountryRoutes);
+
+        ProviderConfigProperty smsHttpGatewayUrl = new ProviderConfigProperty();
+        smsHttpGatewayUrl.setName(MFAConfig.SMS_HTTP_GATEWAY_URL);
+        smsHttpGatewayUrl.setLabel("HTTP SMS Gateway URL");
+        smsHttpGatewayUrl.setType(ProviderConfigProperty.STRING_TYPE);
+        smsHttpGatewayUrl.setHelpText("Endpoint receiving {\"to\", \"message\"} JSON posts for the 'http' gateway");
+        configProperties.add(smsHttpGatewayUrl);
+
+        ProviderConfigProperty smsHttpGatewayToken = new ProviderConfigProperty();
+        smsHttpGatewayToken.setName(MFAConfig.SMS_HTTP_GATEWAY_TOKEN);
+        smsHttpGatewayToken.setLabel("HTTP SMS Gateway Token");
+        smsHttpGatewayToken.setType(ProviderConfigProperty.PASSWORD);
+        smsHttpGatewayToken.setHelpText("Bearer token sent to the 'http' gateway");
+        configProperties.add(smsHttpGatewayToken);
+
         // Telegram Configuration
         ProviderConfigProperty telegramBotToken = new ProviderConfigProperty();
         telegramBotToken.setName("telegramBotToken");  // Must match key in service adapter
@@ -63,6 +162,27 @@ public class CustomMFAAuthenticatorFactory implements AuthenticatorFactory, Conf
         telegramBotToken.setHelpText("Your Telegram Bot Token");
         configProperties.add(telegramBotToken);
 
+        ProviderConfigProperty telegramBaseUrl = new ProviderConfigProperty();
+        telegramBaseUrl.setName(MFAConfig.TELEGRAM_BASE_URL);
+        telegramBaseUrl.setLabel("Telegram API Base URL");
+        telegramBaseUrl.setType(ProviderConfigProperty.STRING_TYPE);
+        telegramBaseUrl.setHelpText("Leave empty for api.telegram.org. Set to a local fake server (e.g. http://localhost:8099) for development and load tests");
+        configProperties.add(telegramBaseUrl);
+
+        ProviderConfigProperty telegramBotUsername = new ProviderConfigProperty();
+        telegramBotUsername.setName(MFAConfig.TELEGRAM_BOT_USERNAME);
+        telegramBotUsername.setLabel("Telegram Bot Username");
+        telegramBotUsername.setType(ProviderConfigProperty.STRING_TYPE);
+        telegramBotUsername.setHelpText("Username of the bot (without @). Enables one-click enrollment through a t.me deep link");
+        configProperties.add(telegramBotUsername);
+
+        ProviderConfigProperty telegramWebhookSecret = new ProviderConfigProperty();
+        telegramWebhookSecret.setName(MFAConfig.TELEGRAM_WEBHOOK_SECRET);
+        telegramWebhookSecret.setLabel("Telegram Webhook Secret");
+        telegramWebhookSecret.setType(ProviderConfigProperty.PASSWORD);
+        telegramWebhookSecret.setHelpText("Secret token registered with setWebhook. Updates to /realms/{realm}/mfa-telegram/webhook are rejected unless they carry it");
+        configProperties.add(telegramWebhookSecret);
+
         // Email configuration properties
         ProviderConfigProperty useKeycloakSmtp = new ProviderConfigProperty();
         useKeycloakSmtp.setName(MFAConfig.USE_KEYCLOAK_SMTP);
@@ -97,6 +217,133 @@ public class CustomMFAAuthenticatorFactory implements AuthenticatorFactory, Conf
         otpExpiration.setHelpText("Time in seconds before OTP expires");
         configProperties.add(otpExpiration);
         
+        // Attempt limiting configuration
+        ProviderConfigProperty maxFailedAttempts = new ProviderConfigProperty();
+        maxFailedAttempts.setName(MFAConfig.MAX_FAILED_ATTEMPTS);
+        maxFailedAttempts.setLabel("Max Attempts Per Code");
+        maxFailedAttempts.setType(ProviderConfigProperty.STRING_TYPE);
+        maxFailedAttempts.setDefaultValue(MFAConfig.DEFAULT_MAX_FAILED_ATTEMPTS);
+        maxFailedAttempts.setHelpText("Number of invalid codes accepted in a login session before a new code must be requested");
+        configProperties.add(maxFailedAttempts);
+        
+        ProviderConfigProperty userLockoutThreshold = new ProviderConfigProperty();
+        userLockoutThreshold.setName(MFAConfig.USER_LOCKOUT_THRESHOLD);
+        userLockoutThreshold.setLabel("User Lockout Threshold");
+        userLockoutThreshold.setType(ProviderConfigProperty.STRING_TYPE);
+        userLockoutThreshold.setDefaultValue(MFAConfig.DEFAULT_USER_LOCKOUT_THRESHOLD);
+        userLockoutThreshold.setHelpText("Number of failed verifications across sessions before the user is temporarily locked out");
+        configProperties.add(userLockoutThreshold);
+        
+        ProviderConfigProperty lockoutDuration = new ProviderConfigProperty();
+        lockoutDuration.setName(MFAConfig.LOCKOUT_DURATION);
+        lockoutDuration.setLabel("Lockout Duration");
+        lockoutDuration.setType(ProviderConfigProperty.STRING_TYPE);
+        lockoutDuration.setDefaultValue(MFAConfig.DEFAULT_LOCKOUT_DURATION);
+        lockoutDuration.setHelpText("Time in seconds a user stays locked out after reaching the lockout threshold");
+        configProperties.add(lockoutDuration);
+        
+        // SSO Session Reuse Configuration
+        ProviderConfigProperty mfaReuseMaxAge = new ProviderConfigProperty();
+        mfaReuseMaxAge.setName(MFAConfig.MFA_REUSE_MAX_AGE);
+        mfaReuseMaxAge.setLabel("Reuse MFA Within SSO Session");
+        mfaReuseMaxAge.setType(ProviderConfigProperty.STRING_TYPE);
+        mfaReuseMaxAge.setDefaultValue(MFAConfig.DEFAULT_MFA_REUSE_MAX_AGE);
+        mfaReuseMaxAge.setHelpText("Time in seconds an MFA completed in the current SSO session is accepted again, e.g. for a second client. 0 always asks for a new code");
+        configProperties.add(mfaReuseMaxAge);
+        
+        // Preferred Method Configuration
+        ProviderConfigProperty autoSendPreferred = new ProviderConfigProperty();
+        autoSendPreferred.setName(MFAConfig.AUTO_SEND_PREFERRED);
+        autoSendPreferred.setLabel("Auto-send Preferred Method");
+        autoSendPreferred.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        autoSendPreferred.setDefaultValue("true");
+        autoSendPreferred.setHelpText("Skip the method selection and send the code over the user's last successful method while it is configured and its channel is healthy");
+        configProperties.add(autoSendPreferred);
+        
+        ProviderConfigProperty autoSendCooldown = new ProviderConfigProperty();
+        autoSendCooldown.setName(MFAConfig.AUTO_SEND_COOLDOWN);
+        autoSendCooldown.setLabel("Auto-send Cooldown");
+        autoSendCooldown.setType(ProviderConfigProperty.STRING_TYPE);
+        autoSendCooldown.setDefaultValue(MFAConfig.DEFAULT_AUTO_SEND_COOLDOWN);
+        autoSendCooldown.setHelpText("Minimum time in seconds between two automatic sends to the same user. Logins within it show the method selection instead");
+        configProperties.add(autoSendCooldown);
+        
+        // User Data Storage Configuration
+        ProviderConfigProperty profileStorageEnabled = new ProviderConfigProperty();
+        profileStorageEnabled.setName(MFAConfig.PROFILE_STORAGE_ENABLED);
+        profileStorageEnabled.setLabel("Single MFA Profile Attribute");
+        profileStorageEnabled.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        profileStorageEnabled.setDefaultValue("false");
+        profileStorageEnabled.setHelpText("Move each user's phone number, Telegram ID, preferred method and enrollment times into the single mfaProfile attribute the first time they are read");
+        configProperties.add(profileStorageEnabled);
+        
+        // Trusted Device Configuration
+        ProviderConfigProperty trustedDeviceEnabled = new ProviderConfigProperty();
+        trustedDeviceEnabled.setName(MFAConfig.TRUSTED_DEVICE_ENABLED);
+        trustedDeviceEnabled.setLabel("Allow Trusted Devices");
+        trustedDeviceEnabled.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        trustedDeviceEnabled.setDefaultValue("false");
+        trustedDeviceEnabled.setHelpText("Let users skip MFA on a device they marked as trusted after a successful verification");
+        configProperties.add(trustedDeviceEnabled);
+        
+        ProviderConfigProperty trustedDeviceLifetime = new ProviderConfigProperty();
+        trustedDeviceLifetime.setName(MFAConfig.TRUSTED_DEVICE_LIFETIME);
+        trustedDeviceLifetime.setLabel("Trusted Device Lifetime");
+        trustedDeviceLifetime.setType(ProviderConfigProperty.STRING_TYPE);
+        trustedDeviceLifetime.setDefaultValue(MFAConfig.DEFAULT_TRUSTED_DEVICE_LIFETIME);
+        trustedDeviceLifetime.setHelpText("Number of days a device stays trusted");
+        configProperties.add(trustedDeviceLifetime);
+        
+        ProviderConfigProperty trustedDeviceNotBefore = new ProviderConfigProperty();
+        trustedDeviceNotBefore.setName(MFAConfig.TRUSTED_DEVICE_NOT_BEFORE);
+        trustedDeviceNotBefore.setLabel("Trusted Devices Not Before");
+        trustedDeviceNotBefore.setType(ProviderConfigProperty.STRING_TYPE);
+        trustedDeviceNotBefore.setHelpText("Epoch seconds, devices trusted before this time are revoked. Set to the current time to revoke all trusted devices");
+        configProperties.add(trustedDeviceNotBefore);
+        
+        // Diagnostics Configuration
+        ProviderConfigProperty serverTimingEnabled = new ProviderConfigProperty();
+        serverTimingEnabled.setName(MFAConfig.SERVER_TIMING_ENABLED);
+        serverTimingEnabled.setLabel("Send Server-Timing Header");
+        serverTimingEnabled.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        serverTimingEnabled.setDefaultValue("false");
+        serverTimingEnabled.setHelpText("Add per-stage durations (provider, configured, otp, send, verify, render) to the MFA pages for real user monitoring");
+        configProperties.add(serverTimingEnabled);
+        
+        // Hedged Delivery Configuration
+        ProviderConfigProperty hedgingEnabled = new ProviderConfigProperty();
+        hedgingEnabled.setName(MFAConfig.HEDGING_ENABLED);
+        hedgingEnabled.setLabel("Hedge Slow Deliveries");
+        hedgingEnabled.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        hedgingEnabled.setDefaultValue("false");
+        hedgingEnabled.setHelpText("If a code is not used within the channel's recent p95 time, send one extra code over another configured channel (Telegram or Email) and accept either");
+        configProperties.add(hedgingEnabled);
+        
+        ProviderConfigProperty hedgeDefaultDelay = new ProviderConfigProperty();
+        hedgeDefaultDelay.setName(MFAConfig.HEDGE_DEFAULT_DELAY);
+        hedgeDefaultDelay.setLabel("Hedge Default Delay");
+        hedgeDefaultDelay.setType(ProviderConfigProperty.STRING_TYPE);
+        hedgeDefaultDelay.setDefaultValue(MFAConfig.DEFAULT_HEDGE_DEFAULT_DELAY);
+        hedgeDefaultDelay.setHelpText("Seconds to wait before hedging while a channel has too few samples for a p95");
+        configProperties.add(hedgeDefaultDelay);
+        
+        // Outbound Scheduling Configuration
+        ProviderConfigProperty outboundWeight = new ProviderConfigProperty();
+        outboundWeight.setName(MFAConfig.OUTBOUND_WEIGHT);
+        outboundWeight.setLabel("Outbound Weight");
+        outboundWeight.setType(ProviderConfigProperty.STRING_TYPE);
+        outboundWeight.setDefaultValue(MFAConfig.DEFAULT_OUTBOUND_WEIGHT);
+        outboundWeight.setHelpText("Share of this node's outbound message slots the realm gets relative to other realms while slots are contended");
+        configProperties.add(outboundWeight);
+        
+        ProviderConfigProperty outboundMaxConcurrent = new ProviderConfigProperty();
+        outboundMaxConcurrent.setName(MFAConfig.OUTBOUND_MAX_CONCURRENT);
+        outboundMaxConcurrent.setLabel("Outbound Concurrency Cap");
+        outboundMaxConcurrent.setType(ProviderConfigProperty.STRING_TYPE);
+        outboundMaxConcurrent.setDefaultValue(MFAConfig.DEFAULT_OUTBOUND_MAX_CONCURRENT);
+        outboundMaxConcurrent.setHelpText("Most messages the realm may send at once on this node, 0 for no cap");
+        configProperties.add(outboundMaxConcurrent);
+        
         logger.info("Added " + configProperties.size() + " config properties");
     }
 
@@ -143,18 +390,56 @@ public class CustomMFAAuthenticatorFactory implements AuthenticatorFactory, Conf
     public void init(org.keycloak.Config.Scope config) {
         // Initialize any global settings here
         logger.info("Initializing CustomMFAAuthenticatorFactory");
+        warmupEnabled = config.getBoolean(OPTION_WARMUP_ENABLED, false);
+        warmupTimeout = config.getInt(OPTION_WARMUP_TIMEOUT, DEFAULT_WARMUP_TIMEOUT);
+        healthProbeInterval = config.getInt(OPTION_HEALTH_PROBE_INTERVAL, DEFAULT_HEALTH_PROBE_INTERVAL);
+        eventStoreEnabled = config.getBoolean(OPTION_EVENT_STORE_ENABLED, false);
+        OutboundScheduler.getInstance().setCapacity(
+            config.getInt(OPTION_OUTBOUND_SLOTS, OutboundScheduler.DEFAULT_CAPACITY));
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
         // Perform any post-initialization logic
         logger.info("Post-initializing CustomMFAAuthenticatorFactory");
+        
+        // Realms can only be read once migration and realm import are done
+        sessionFactory = factory;
+        migrationListener = this::onProviderEvent;
+        factory.register(migrationListener);
+        
+        if (eventStoreEnabled) {
+            eventStoreListener = new EventStoreBridgeListener(factory);
+            AuthEventManager.getInstance().addEventListener(eventStoreListener);
+        }
+    }
+
+    private void onProviderEvent(ProviderEvent event) {
+        if (!(event instanceof PostMigrationEvent)) {
+            return;
+        }
+        KeycloakSessionFactory factory = ((PostMigrationEvent) event).getFactory();
+        if (warmupEnabled) {
+            // Blocking on purpose: startup (and readiness) waits for the warm-up
+            new ServiceWarmup(factory, PROVIDER_ID).run(warmupTimeout);
+        }
+        ChannelHealthMonitor.getInstance().start(factory, PROVIDER_ID, healthProbeInterval);
     }
 
     @Override
     public void close() {
         // Clean up resources
         logger.info("Closing CustomMFAAuthenticatorFactory");
+        if (migrationListener != null) {
+            sessionFactory.unregister(migrationListener);
+            migrationListener = null;
+        }
+        ChannelHealthMonitor.getInstance().stop();
+        if (eventStoreListener != null) {
+            AuthEventManager.getInstance().removeEventListener(eventStoreListener);
+            eventStoreListener.close();
+            eventStoreListener = null;
+        }
     }
 
     @Override
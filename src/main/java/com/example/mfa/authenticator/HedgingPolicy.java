@@ -0,0 +1,68 @@
+package com.example.mfa.authenticator;
+
+import org.keycloak.models.UserModel;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.factory.MFAProviderFactory;
+import com.example.mfa.provider.MFAProvider;
+import com.example.mfa.stats.ChannelStatsRegistry;
+import com.example.mfa.util.LatencyWindow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when and where a slow code delivery is hedged on a second channel
+ * The delay is the primary channel's recent p95 time from send to verification, so
+ * only the slowest deliveries cost an extra message
+ */
+public class HedgingPolicy {
+
+    // Channels that can deliver a caller-chosen code quickly
+    private static final String[] HEDGE_CHANNELS = {"telegram", "email"};
+    // The channel's p95 is used once it has this many samples
+    private static final int MIN_SAMPLES = 20;
+    private static final long MIN_DELAY_MILLIS = 5000L;
+    private static final long MAX_DELAY_MILLIS = 120000L;
+
+    private final MFAConfig config;
+    private final MFAProviderFactory providerFactory;
+    private final ChannelStatsRegistry channelStats;
+
+    public HedgingPolicy(MFAConfig config) {
+        this.config = config;
+        this.providerFactory = MFAProviderFactory.getInstance();
+        this.channelStats = ChannelStatsRegistry.getInstance();
+    }
+
+    /**
+     * Get the time after sending on the primary channel at which a hedge is sent
+     */
+    public long getDelayMillis(String realmId, String primary) {
+        LatencyWindow stats = channelStats.getRealmStats(realmId, primary);
+        long p95 = stats.sampleCount() >= MIN_SAMPLES ? stats.percentile(95) : -1;
+        long delay = p95 > 0 ? p95 : config.getHedgeDefaultDelay() * 1000L;
+        return Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, delay));
+    }
+
+    /**
+     * Choose the configured channel to hedge on, null if the user has none besides the primary
+     */
+    public String chooseChannel(String realmId, UserModel user, String primary) {
+        List<String> candidates = new ArrayList<>();
+        for (String channel : HEDGE_CHANNELS) {
+            if (!channel.equals(primary) && isConfigured(user, channel)) {
+                candidates.add(channel);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        String recommended = channelStats.recommend(realmId, user.getId(), candidates);
+        return recommended != null ? recommended : candidates.get(0);
+    }
+
+    private boolean isConfigured(UserModel user, String channel) {
+        MFAProvider provider = providerFactory.createProvider(channel, null);
+        return provider.isConfiguredFor(user);
+    }
+}
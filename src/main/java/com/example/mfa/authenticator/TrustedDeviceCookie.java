@@ -0,0 +1,153 @@
+package com.example.mfa.authenticator;
+
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import com.example.mfa.config.MFAConfig;
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.NewCookie;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Signed "remember this device" cookie that lets a user skip MFA for a configurable period
+ * The cookie is verified with the realm's HMAC key only, no stored device records are needed
+ */
+public class TrustedDeviceCookie {
+    private static final Logger logger = Logger.getLogger(TrustedDeviceCookie.class);
+
+    public static final String COOKIE_NAME = "KC_MFA_TRUSTED_DEVICE";
+    // User attribute, devices trusted before this epoch second are revoked
+    public static final String USER_NOT_BEFORE_ATTRIBUTE = "mfaTrustedDeviceNotBefore";
+
+    // The realm's HMAC key and the MAC computed with it, keep the two in step
+    private static final String KEY_ALGORITHM = Algorithm.HS512;
+    private static final String MAC_ALGORITHM = "HmacSHA512";
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60L;
+
+    private final AuthenticationFlowContext context;
+    private final MFAConfig config;
+
+    public TrustedDeviceCookie(AuthenticationFlowContext context, MFAConfig config) {
+        this.context = context;
+        this.config = config;
+    }
+
+    /**
+     * Check if the request carries a valid trusted device cookie for the user
+     */
+    public boolean isTrusted(UserModel user) {
+        Cookie cookie = context.getHttpRequest().getHttpHeaders().getCookies().get(COOKIE_NAME);
+        if (cookie == null || cookie.getValue() == null) {
+            return false;
+        }
+
+        // Format: <kid>.<userId>.<issuedAt>.<expiresAt>.<signature>
+        String[] parts = cookie.getValue().split("\\.");
+        if (parts.length != 5) {
+            return false;
+        }
+
+        try {
+            String kid = decode(parts[0]);
+            String userId = decode(parts[1]);
+            long issuedAt = Long.parseLong(parts[2]);
+            long expiresAt = Long.parseLong(parts[3]);
+            long now = System.currentTimeMillis() / 1000L;
+
+            if (!user.getId().equals(userId) || expiresAt < now || issuedAt < getNotBefore(user)) {
+                return false;
+            }
+
+            KeyWrapper key = context.getSession().keys().getKey(context.getRealm(), kid, KeyUse.SIG, KEY_ALGORITHM);
+            if (key == null || key.getSecretKey() == null) {
+                return false;
+            }
+
+            byte[] expected = sign(key, payload(context.getRealm(), userId, issuedAt, expiresAt));
+            return MessageDigest.isEqual(expected, Base64.getUrlDecoder().decode(parts[4]));
+        } catch (Exception e) {
+            logger.debug("Rejected malformed trusted device cookie: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Issue a trusted device cookie for the user
+     */
+    public void issue(UserModel user) {
+        RealmModel realm = context.getRealm();
+        KeyWrapper key = context.getSession().keys().getActiveKey(realm, KeyUse.SIG, KEY_ALGORITHM);
+        if (key == null || key.getSecretKey() == null) {
+            logger.warn("No active HMAC key in realm " + realm.getName() + ", trusted device cookie not issued");
+            return;
+        }
+
+        int lifetimeSeconds = (int) Math.min(Integer.MAX_VALUE, config.getTrustedDeviceLifetime() * SECONDS_PER_DAY);
+        long issuedAt = System.currentTimeMillis() / 1000L;
+        long expiresAt = issuedAt + lifetimeSeconds;
+
+        try {
+            String signature = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sign(key, payload(realm, user.getId(), issuedAt, expiresAt)));
+            String value = encode(key.getKid()) + "." + encode(user.getId()) + "."
+                + issuedAt + "." + expiresAt + "." + signature;
+
+            NewCookie cookie = new NewCookie.Builder(COOKIE_NAME)
+                .value(value)
+                .path(getRealmPath(realm))
+                .maxAge(lifetimeSeconds)
+                .secure("https".equalsIgnoreCase(context.getUriInfo().getRequestUri().getScheme()))
+                .httpOnly(true)
+                .sameSite(NewCookie.SameSite.LAX)
+                .build();
+            context.getSession().getContext().getHttpResponse().setCookieIfAbsent(cookie);
+            logger.info("Issued trusted device cookie for user: " + user.getUsername());
+        } catch (Exception e) {
+            logger.error("Failed to issue trusted device cookie", e);
+        }
+    }
+
+    private long getNotBefore(UserModel user) {
+        long notBefore = config.getTrustedDeviceNotBefore();
+        String userNotBefore = user.getFirstAttribute(USER_NOT_BEFORE_ATTRIBUTE);
+        if (userNotBefore != null) {
+            try {
+                notBefore = Math.max(notBefore, Long.parseLong(userNotBefore.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid " + USER_NOT_BEFORE_ATTRIBUTE + " for user " + user.getUsername());
+            }
+        }
+        return notBefore;
+    }
+
+    private String getRealmPath(RealmModel realm) {
+        return context.getSession().getContext().getUri().getBaseUri().getRawPath()
+            .replaceAll("/$", "") + "/realms/" + realm.getName() + "/";
+    }
+
+    private static String payload(RealmModel realm, String userId, long issuedAt, long expiresAt) {
+        return realm.getId() + "|" + userId + "|" + issuedAt + "|" + expiresAt;
+    }
+
+    private static byte[] sign(KeyWrapper key, String payload) throws Exception {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(key.getSecretKey());
+        return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+}
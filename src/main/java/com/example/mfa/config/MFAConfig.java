@@ -2,8 +2,11 @@ package com.example.mfa.config;
 
 import org.jboss.logging.Logger;
 import org.keycloak.models.AuthenticatorConfigModel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,16 +27,76 @@ public class MFAConfig {
 
     // Telegram configuration
     public static final String TELEGRAM_BOT_TOKEN = "telegramBotToken";
+    public static final String TELEGRAM_BASE_URL = "telegramBaseUrl"; // e.g. a local fake server
+    public static final String TELEGRAM_BOT_USERNAME = "telegramBotUsername"; // used for t.me deep links
+    public static final String TELEGRAM_WEBHOOK_SECRET = "telegramWebhookSecret";
     
     // Twilio configuration
     public static final String TWILIO_ACCOUNT_SID = "twilioAccountSid";
     public static final String TWILIO_AUTH_TOKEN = "twilioAuthToken";
     public static final String TWILIO_VERIFY_SERVICE_SID = "twilioVerifyServiceSid";
+    public static final String TWILIO_FROM_NUMBER = "twilioFromNumber";
+    public static final String TWILIO_BASE_URL = "twilioBaseUrl"; // e.g. a local fake server
+    
+    // SMS verification mode
+    public static final String SMS_VERIFICATION_MODE = "smsVerificationMode";
+    public static final String SMS_MODE_VERIFY = "verify"; // Twilio Verify generates and checks the code
+    public static final String SMS_MODE_LOCAL = "local";   // Our code is sent as a plain SMS and checked locally
+    
+    // SMS gateway routing configuration
+    public static final String SMS_GATEWAYS = "smsGateways";
+    public static final String DEFAULT_SMS_GATEWAYS = "twilio";
+    public static final String SMS_ROUTING_POLICY = "smsRoutingPolicy";
+    public static final String DEFAULT_SMS_ROUTING_POLICY = "priority";
+    public static final String SMS_GATEWAY_WEIGHTS = "smsGatewayWeights";
+    public static final String SMS_COUNTRY_ROUTES = "smsCountryRoutes";
+    public static final String SMS_HTTP_GATEWAY_URL = "smsHttpGatewayUrl";
+    public static final String SMS_HTTP_GATEWAY_TOKEN = "smsHttpGatewayToken";
     
     // General configuration
     public static final String OTP_EXPIRATION = "otpExpiration";
     public static final String DEFAULT_OTP_EXPIRATION = "300"; // 5 minutes
     
+    // Attempt limiting configuration
+    public static final String MAX_FAILED_ATTEMPTS = "maxFailedAttempts";
+    public static final String DEFAULT_MAX_FAILED_ATTEMPTS = "5";
+    public static final String USER_LOCKOUT_THRESHOLD = "userLockoutThreshold";
+    public static final String DEFAULT_USER_LOCKOUT_THRESHOLD = "10";
+    public static final String LOCKOUT_DURATION = "lockoutDuration";
+    public static final String DEFAULT_LOCKOUT_DURATION = "300"; // 5 minutes
+    
+    // Trusted device configuration
+    public static final String TRUSTED_DEVICE_ENABLED = "trustedDeviceEnabled";
+    public static final String TRUSTED_DEVICE_LIFETIME = "trustedDeviceLifetime";
+    public static final String DEFAULT_TRUSTED_DEVICE_LIFETIME = "30"; // days
+    public static final String TRUSTED_DEVICE_NOT_BEFORE = "trustedDeviceNotBefore";
+    
+    // SSO session reuse configuration
+    public static final String MFA_REUSE_MAX_AGE = "mfaReuseMaxAge";
+    public static final String DEFAULT_MFA_REUSE_MAX_AGE = "0"; // disabled
+    
+    // Preferred method configuration
+    public static final String AUTO_SEND_PREFERRED = "autoSendPreferredMethod";
+    public static final String AUTO_SEND_COOLDOWN = "autoSendCooldown";
+    public static final String DEFAULT_AUTO_SEND_COOLDOWN = "60"; // seconds
+    
+    // User data storage configuration
+    public static final String PROFILE_STORAGE_ENABLED = "profileStorageEnabled";
+    
+    // Diagnostics configuration
+    public static final String SERVER_TIMING_ENABLED = "serverTimingEnabled";
+    
+    // Hedged delivery configuration
+    public static final String HEDGING_ENABLED = "hedgingEnabled";
+    public static final String HEDGE_DEFAULT_DELAY = "hedgeDefaultDelay";
+    public static final String DEFAULT_HEDGE_DEFAULT_DELAY = "20"; // seconds, until the channel has a p95
+    
+    // Outbound scheduling configuration, applies to the whole realm
+    public static final String OUTBOUND_WEIGHT = "outboundWeight";
+    public static final String DEFAULT_OUTBOUND_WEIGHT = "1";
+    public static final String OUTBOUND_MAX_CONCURRENT = "outboundMaxConcurrent";
+    public static final String DEFAULT_OUTBOUND_MAX_CONCURRENT = "0"; // no cap
+    
     private final Map<String, String> config;
     
     /**
@@ -142,17 +205,215 @@ public class MFAConfig {
         return getConfig(TWILIO_VERIFY_SERVICE_SID);
     }
     
+    public String getTwilioFromNumber() {
+        return getConfig(TWILIO_FROM_NUMBER);
+    }
+    
+    public String getTwilioBaseUrl() {
+        return getConfig(TWILIO_BASE_URL);
+    }
+    
+    // SMS getters
+    public String getSmsVerificationMode() {
+        return getConfig(SMS_VERIFICATION_MODE, SMS_MODE_VERIFY);
+    }
+    
+    public boolean isSmsLocalVerification() {
+        return SMS_MODE_LOCAL.equalsIgnoreCase(getSmsVerificationMode());
+    }
+    
+    public List<String> getSmsGateways() {
+        return getListConfig(SMS_GATEWAYS, DEFAULT_SMS_GATEWAYS);
+    }
+    
+    public String getSmsRoutingPolicy() {
+        return getConfig(SMS_ROUTING_POLICY, DEFAULT_SMS_ROUTING_POLICY).trim().toLowerCase();
+    }
+    
+    public Map<String, String> getSmsGatewayWeights() {
+        return getMapConfig(SMS_GATEWAY_WEIGHTS);
+    }
+    
+    public Map<String, String> getSmsCountryRoutes() {
+        return getMapConfig(SMS_COUNTRY_ROUTES);
+    }
+    
+    public String getSmsHttpGatewayUrl() {
+        return getConfig(SMS_HTTP_GATEWAY_URL);
+    }
+    
+    public String getSmsHttpGatewayToken() {
+        return getConfig(SMS_HTTP_GATEWAY_TOKEN);
+    }
+    
     // Telegram getters
     public String getTelegramBotToken() {
         return getConfig(TELEGRAM_BOT_TOKEN);
     }
     
+    public String getTelegramBaseUrl() {
+        return getConfig(TELEGRAM_BASE_URL);
+    }
+    
+    public String getTelegramBotUsername() {
+        String username = getConfig(TELEGRAM_BOT_USERNAME);
+        return username != null ? username.trim().replaceFirst("^@", "") : null;
+    }
+    
+    public String getTelegramWebhookSecret() {
+        return getConfig(TELEGRAM_WEBHOOK_SECRET);
+    }
+    
     // General getters
     public int getOtpExpiration() {
         String expiration = getConfig(OTP_EXPIRATION);
         return expiration != null ? Integer.parseInt(expiration) : Integer.parseInt(DEFAULT_OTP_EXPIRATION);
     }
     
+    // Attempt limiting getters
+    public int getMaxFailedAttempts() {
+        return getIntConfig(MAX_FAILED_ATTEMPTS, DEFAULT_MAX_FAILED_ATTEMPTS);
+    }
+    
+    public int getUserLockoutThreshold() {
+        return getIntConfig(USER_LOCKOUT_THRESHOLD, DEFAULT_USER_LOCKOUT_THRESHOLD);
+    }
+    
+    public int getLockoutDuration() {
+        return getIntConfig(LOCKOUT_DURATION, DEFAULT_LOCKOUT_DURATION);
+    }
+    
+    // Trusted device getters
+    public boolean isTrustedDeviceEnabled() {
+        return Boolean.parseBoolean(getConfig(TRUSTED_DEVICE_ENABLED));
+    }
+    
+    public int getTrustedDeviceLifetime() {
+        return getIntConfig(TRUSTED_DEVICE_LIFETIME, DEFAULT_TRUSTED_DEVICE_LIFETIME);
+    }
+    
+    /**
+     * Get the time in seconds a completed MFA is reused within the SSO session, 0 when disabled
+     */
+    public int getMfaReuseMaxAge() {
+        return getIntConfig(MFA_REUSE_MAX_AGE, DEFAULT_MFA_REUSE_MAX_AGE);
+    }
+    
+    /**
+     * Check if the code is sent right away over the user's last successful method, on unless disabled
+     */
+    public boolean isAutoSendPreferredEnabled() {
+        return !"false".equalsIgnoreCase(getConfig(AUTO_SEND_PREFERRED));
+    }
+    
+    /**
+     * Get the minimum seconds between two automatic sends to the same user
+     */
+    public int getAutoSendCooldown() {
+        return getIntConfig(AUTO_SEND_COOLDOWN, DEFAULT_AUTO_SEND_COOLDOWN);
+    }
+    
+    /**
+     * Check if users' MFA attributes are migrated into the single profile attribute on first read
+     */
+    public boolean isProfileStorageEnabled() {
+        return Boolean.parseBoolean(getConfig(PROFILE_STORAGE_ENABLED));
+    }
+    
+    public boolean isServerTimingEnabled() {
+        return Boolean.parseBoolean(getConfig(SERVER_TIMING_ENABLED));
+    }
+    
+    public boolean isHedgingEnabled() {
+        return Boolean.parseBoolean(getConfig(HEDGING_ENABLED));
+    }
+    
+    /**
+     * Get the hedge delay in seconds used while a channel has too few samples for its p95
+     */
+    public int getHedgeDefaultDelay() {
+        return getIntConfig(HEDGE_DEFAULT_DELAY, DEFAULT_HEDGE_DEFAULT_DELAY);
+    }
+    
+    /**
+     * Get the realm's share of outbound slots relative to other realms
+     */
+    public int getOutboundWeight() {
+        return getIntConfig(OUTBOUND_WEIGHT, DEFAULT_OUTBOUND_WEIGHT);
+    }
+    
+    /**
+     * Get the most outbound slots the realm may hold at once, 0 for no cap
+     */
+    public int getOutboundMaxConcurrent() {
+        return getIntConfig(OUTBOUND_MAX_CONCURRENT, DEFAULT_OUTBOUND_MAX_CONCURRENT);
+    }
+    
+    /**
+     * Get the epoch second before which all trusted devices are revoked, 0 when unset
+     */
+    public long getTrustedDeviceNotBefore() {
+        String value = getConfig(TRUSTED_DEVICE_NOT_BEFORE);
+        if (value == null || value.trim().isEmpty()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for " + TRUSTED_DEVICE_NOT_BEFORE + ": " + value);
+            return 0L;
+        }
+    }
+    
+    /**
+     * Get a comma separated configuration value as a list of trimmed, non-empty entries
+     */
+    private List<String> getListConfig(String key, String defaultValue) {
+        String value = getConfig(key);
+        if (value == null || value.trim().isEmpty()) {
+            value = defaultValue;
+        }
+        List<String> entries = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.trim().isEmpty()) {
+                entries.add(entry.trim());
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Get a configuration value of the form "key1=value1,key2=value2" as an ordered map
+     */
+    private Map<String, String> getMapConfig(String key) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String entry : getListConfig(key, "")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0 || separator == entry.length() - 1) {
+                logger.warn("Ignoring malformed entry in " + key + ": " + entry);
+                continue;
+            }
+            entries.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return entries;
+    }
+    
+    /**
+     * Get an integer configuration value, falling back to the default when missing or malformed
+     */
+    private int getIntConfig(String key, String defaultValue) {
+        String value = getConfig(key);
+        if (value == null || value.trim().isEmpty()) {
+            return Integer.parseInt(defaultValue);
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid integer value for " + key + ": " + value + ", using default " + defaultValue);
+            return Integer.parseInt(defaultValue);
+        }
+    }
+    
     /**
      * Builder for creating custom configs for testing
      */
@@ -196,14 +457,58 @@ public class MFAConfig {
             return setConfig(TWILIO_VERIFY_SERVICE_SID, serviceSid);
         }
         
+        public Builder setTwilioFromNumber(String fromNumber) {
+            return setConfig(TWILIO_FROM_NUMBER, fromNumber);
+        }
+        
+        public Builder setTwilioBaseUrl(String baseUrl) {
+            return setConfig(TWILIO_BASE_URL, baseUrl);
+        }
+        
+        public Builder setSmsVerificationMode(String mode) {
+            return setConfig(SMS_VERIFICATION_MODE, mode);
+        }
+        
+        public Builder setSmsGateways(String gateways) {
+            return setConfig(SMS_GATEWAYS, gateways);
+        }
+        
+        public Builder setSmsRoutingPolicy(String policy) {
+            return setConfig(SMS_ROUTING_POLICY, policy);
+        }
+        
         public Builder setTelegramBotToken(String botToken) {
             return setConfig(TELEGRAM_BOT_TOKEN, botToken);
         }
         
+        public Builder setTelegramBaseUrl(String baseUrl) {
+            return setConfig(TELEGRAM_BASE_URL, baseUrl);
+        }
+        
+        public Builder setTelegramBotUsername(String username) {
+            return setConfig(TELEGRAM_BOT_USERNAME, username);
+        }
+        
+        public Builder setTelegramWebhookSecret(String secret) {
+            return setConfig(TELEGRAM_WEBHOOK_SECRET, secret);
+        }
+        
         public Builder setOtpExpiration(int seconds) {
             return setConfig(OTP_EXPIRATION, String.valueOf(seconds));
         }
         
+        public Builder setMaxFailedAttempts(int attempts) {
+            return setConfig(MAX_FAILED_ATTEMPTS, String.valueOf(attempts));
+        }
+        
+        public Builder setUserLockoutThreshold(int attempts) {
+            return setConfig(USER_LOCKOUT_THRESHOLD, String.valueOf(attempts));
+        }
+        
+        public Builder setLockoutDuration(int seconds) {
+            return setConfig(LOCKOUT_DURATION, String.valueOf(seconds));
+        }
+        
         public MFAConfig build() {
             return new MFAConfig(config);
         }
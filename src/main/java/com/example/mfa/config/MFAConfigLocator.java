@@ -0,0 +1,47 @@
+package com.example.mfa.config;
+
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the MFA configurations attached to the authenticator executions of a realm
+ * Used by background tasks that run outside of an authentication flow
+ */
+public class MFAConfigLocator {
+
+    private MFAConfigLocator() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Get the configuration models of all executions of the given authenticator in the realm
+     */
+    public static List<AuthenticatorConfigModel> findConfigModels(RealmModel realm, String authenticatorId) {
+        return realm.getAuthenticationFlowsStream()
+            .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
+            .filter(execution -> authenticatorId.equals(execution.getAuthenticator()))
+            .map(AuthenticationExecutionModel::getAuthenticatorConfig)
+            .filter(Objects::nonNull)
+            .distinct()
+            .map(realm::getAuthenticatorConfigById)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the configurations of all executions of the given authenticator in the realm
+     */
+    public static List<MFAConfig> findConfigs(RealmModel realm, String authenticatorId) {
+        List<MFAConfig> configs = new ArrayList<>();
+        for (AuthenticatorConfigModel model : findConfigModels(realm, authenticatorId)) {
+            configs.add(new MFAConfig(model));
+        }
+        return configs;
+    }
+}
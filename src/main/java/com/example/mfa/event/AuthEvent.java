@@ -15,7 +15,10 @@ public class AuthEvent {
         MFA_SETUP_FAILED,
         MFA_VERIFICATION_STARTED,
         MFA_VERIFICATION_SUCCEEDED,
-        MFA_VERIFICATION_FAILED
+        MFA_VERIFICATION_FAILED,
+        MFA_CODE_SENT,
+        MFA_CODE_SEND_FAILED,
+        MFA_THROTTLED
     }
     
     private final EventType type;
@@ -23,6 +26,7 @@ public class AuthEvent {
     private final UserModel user;
     private final AuthenticationFlowContext context;
     private final String details;
+    private final long durationMillis;
     
     private AuthEvent(Builder builder) {
         this.type = builder.type;
@@ -30,6 +34,7 @@ public class AuthEvent {
         this.user = builder.user;
         this.context = builder.context;
         this.details = builder.details;
+        this.durationMillis = builder.durationMillis;
     }
     
     public EventType getType() {
@@ -52,6 +57,13 @@ public class AuthEvent {
         return details;
     }
     
+    /**
+     * Get the time the send or verification took, -1 when not measured
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+    
     /**
      * Builder Pattern for creating events
      */
@@ -61,6 +73,7 @@ public class AuthEvent {
         private UserModel user;
         private AuthenticationFlowContext context;
         private String details;
+        private long durationMillis = -1;
         
         public Builder type(EventType type) {
             this.type = type;
@@ -87,6 +100,11 @@ public class AuthEvent {
             return this;
         }
         
+        public Builder durationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+            return this;
+        }
+        
         public AuthEvent build() {
             return new AuthEvent(this);
         }
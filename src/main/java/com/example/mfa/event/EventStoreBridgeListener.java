@@ -0,0 +1,206 @@
+package com.example.mfa.event;
+
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observer Pattern: Listener that stores auth events as Keycloak admin events
+ * Events are converted on the login thread and written by a background thread in
+ * batches, one transaction per batch. The buffer is bounded, events that don't fit
+ * are dropped and counted instead of slowing down logins
+ */
+public class EventStoreBridgeListener implements AuthEventListener {
+    private static final Logger logger = Logger.getLogger(EventStoreBridgeListener.class);
+
+    public static final String RESOURCE_TYPE = "MFA";
+
+    private static final int BUFFER_SIZE = 10000;
+    private static final int BATCH_SIZE = 200;
+    private static final long FLUSH_INTERVAL_MILLIS = 2000L;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final BlockingQueue<PendingEvent> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicLong overflow = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private long reportedOverflow;
+
+    public EventStoreBridgeListener(KeycloakSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+        this.writer = new Thread(this::writeLoop, "mfa-event-store");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void onEvent(AuthEvent event) {
+        AuthenticationFlowContext context = event != null ? event.getContext() : null;
+        if (context == null || context.getRealm() == null || !context.getRealm().isAdminEventsEnabled()) {
+            return;
+        }
+
+        RealmModel realm = context.getRealm();
+        if (!buffer.offer(new PendingEvent(toAdminEvent(event, context), realm.isAdminEventsDetailsEnabled()))) {
+            overflow.incrementAndGet();
+        }
+    }
+
+    @Override
+    public AuthEvent.EventType[] getInterestedEventTypes() {
+        return AuthEvent.EventType.values();
+    }
+
+    /**
+     * Get the number of events dropped because the buffer was full
+     */
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * Stop the writer after storing the buffered events
+     */
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(FLUSH_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Map an auth event to an admin event on resource type MFA
+     */
+    static AdminEvent toAdminEvent(AuthEvent event, AuthenticationFlowContext context) {
+        RealmModel realm = context.getRealm();
+        String userId = event.getUser() != null ? event.getUser().getId() : null;
+
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId(realm.getId());
+        authDetails.setRealmName(realm.getName());
+        authDetails.setUserId(userId);
+        if (context.getAuthenticationSession() != null && context.getAuthenticationSession().getClient() != null) {
+            authDetails.setClientId(context.getAuthenticationSession().getClient().getId());
+        }
+        if (context.getConnection() != null) {
+            authDetails.setIpAddress(context.getConnection().getRemoteAddr());
+        }
+
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("type", event.getType().name());
+        if (event.getMfaMethod() != null) {
+            details.put("method", event.getMfaMethod());
+        }
+        if (event.getDurationMillis() >= 0) {
+            details.put("durationMs", String.valueOf(event.getDurationMillis()));
+        }
+        if (event.getDetails() != null) {
+            details.put("details", event.getDetails());
+        }
+
+        AdminEvent adminEvent = new AdminEvent();
+        adminEvent.setId(KeycloakModelUtils.generateId());
+        adminEvent.setTime(System.currentTimeMillis());
+        adminEvent.setRealmId(realm.getId());
+        adminEvent.setRealmName(realm.getName());
+        adminEvent.setAuthDetails(authDetails);
+        adminEvent.setOperationType(event.getType() == AuthEvent.EventType.MFA_SETUP_COMPLETED
+            ? OperationType.CREATE : OperationType.ACTION);
+        adminEvent.setResourceTypeAsString(RESOURCE_TYPE);
+        adminEvent.setResourcePath("users/" + userId + "/mfa" + (event.getMfaMethod() != null ? "/" + event.getMfaMethod() : ""));
+        adminEvent.setDetails(details);
+        if (isFailure(event.getType())) {
+            adminEvent.setError(event.getDetails() != null ? event.getDetails() : event.getType().name());
+        }
+        try {
+            adminEvent.setRepresentation(JsonSerialization.writeValueAsString(details));
+        } catch (Exception e) {
+            logger.debug("Could not serialize MFA event details: " + e.getMessage());
+        }
+        return adminEvent;
+    }
+
+    private static boolean isFailure(AuthEvent.EventType type) {
+        return type == AuthEvent.EventType.MFA_SETUP_FAILED
+            || type == AuthEvent.EventType.MFA_VERIFICATION_FAILED
+            || type == AuthEvent.EventType.MFA_CODE_SEND_FAILED
+            || type == AuthEvent.EventType.MFA_THROTTLED;
+    }
+
+    /**
+     * Collect events until a batch is full or the oldest event waited the flush interval
+     */
+    private void writeLoop() {
+        List<PendingEvent> batch = new ArrayList<>(BATCH_SIZE);
+        long deadline = 0L;
+        while (running || !buffer.isEmpty()) {
+            try {
+                long wait = batch.isEmpty() ? FLUSH_INTERVAL_MILLIS : deadline - System.currentTimeMillis();
+                PendingEvent next = wait > 0 ? buffer.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (next != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                    }
+                    batch.add(next);
+                    buffer.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // Closing, store what is buffered
+                buffer.drainTo(batch);
+            }
+            if (!batch.isEmpty() && (batch.size() >= BATCH_SIZE || !running
+                    || System.currentTimeMillis() >= deadline)) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingEvent> batch) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                EventStoreProvider store = session.getProvider(EventStoreProvider.class);
+                for (PendingEvent pending : batch) {
+                    store.onEvent(pending.event, pending.includeRepresentation);
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Could not store " + batch.size() + " MFA events: " + e.getMessage());
+        }
+
+        long dropped = overflow.get();
+        if (dropped > reportedOverflow) {
+            logger.warn("Dropped " + (dropped - reportedOverflow) + " MFA events because the event buffer was full");
+            reportedOverflow = dropped;
+        }
+    }
+
+    private static final class PendingEvent {
+        final AdminEvent event;
+        final boolean includeRepresentation;
+
+        PendingEvent(AdminEvent event, boolean includeRepresentation) {
+            this.event = event;
+            this.includeRepresentation = includeRepresentation;
+        }
+    }
+}
@@ -4,7 +4,13 @@ import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.UserModel;
 import com.example.mfa.config.MFAConfig;
+import com.example.mfa.service.OutboundScheduler;
+import com.example.mfa.service.OutboundScheduler.Priority;
+import com.example.mfa.util.MFAFlowState;
+import com.example.mfa.util.MFAFlowState.Field;
 import com.example.mfa.util.OTPGenerator;
+import com.example.mfa.util.ServerTiming;
+import com.example.mfa.util.ServerTiming.Stage;
 
 /**
  * Template Method Pattern: Abstract base class for MFA providers
@@ -22,19 +28,36 @@ public abstract class AbstractMFAProvider implements MFAProvider {
     }
     
     /**
-     * Template method for sending verification code
+     * Send a verification code for a login
      */
     @Override
     public void sendVerificationCode(AuthenticationFlowContext context, UserModel user) throws MFAException {
+        sendVerificationCode(context, user, Priority.LOGIN);
+    }
+    
+    /**
+     * Template method for sending verification code in an outbound priority class
+     */
+    @Override
+    public void sendVerificationCode(AuthenticationFlowContext context, UserModel user, Priority priority)
+            throws MFAException {
+        ServerTiming timing = ServerTiming.get(context);
         try {
             // Generate OTP code
+            long start = timing.start();
             String otp = generateCode();
+            timing.stop(Stage.OTP, start);
             
             // Store OTP in session for verification
             storeCodeInSession(context, otp);
             
             // Perform provider-specific sending
-            sendCode(context, user, otp);
+            start = timing.start();
+            try {
+                sendScheduled(context, user, otp, priority);
+            } finally {
+                timing.stop(Stage.SEND, start);
+            }
             
             logger.info("Verification code sent via " + getType() + " to user: " + user.getUsername());
         } catch (Exception e) {
@@ -43,11 +66,49 @@ public abstract class AbstractMFAProvider implements MFAProvider {
         }
     }
     
+    /**
+     * Deliver the given code through the provider-specific channel
+     */
+    @Override
+    public boolean sendHedgeCode(AuthenticationFlowContext context, UserModel user, String code) throws MFAException {
+        try {
+            sendScheduled(context, user, code, Priority.LOGIN);
+            logger.info("Hedge code sent via " + getType() + " to user: " + user.getUsername());
+            return true;
+        } catch (Exception e) {
+            logger.error("Failed to send hedge code via " + getType(), e);
+            throw new MFAException("Failed to send hedge code: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Send through the outbound scheduler, so the realm waits its fair turn when slots are contended
+     */
+    private void sendScheduled(AuthenticationFlowContext context, UserModel user, String code, Priority priority)
+            throws Exception {
+        if (!sendsMessages()) {
+            sendCode(context, user, code);
+            return;
+        }
+        try (OutboundScheduler.Permit permit = OutboundScheduler.getInstance().acquire(context.getRealm().getId(),
+                priority, config.getOutboundWeight(), config.getOutboundMaxConcurrent())) {
+            sendCode(context, user, code);
+        }
+    }
+    
+    /**
+     * Check if sending a code calls an external service
+     */
+    protected boolean sendsMessages() {
+        return true;
+    }
+    
     /**
      * Default implementation of code verification
      */
     @Override
-    public boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code) {
+    public boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code)
+            throws CodeExpiredException {
         String storedCode = getCodeFromSession(context);
         return storedCode != null && storedCode.equals(code);
     }
@@ -68,13 +129,13 @@ public abstract class AbstractMFAProvider implements MFAProvider {
      * Store code in session
      */
     protected void storeCodeInSession(AuthenticationFlowContext context, String code) {
-        context.getAuthenticationSession().setAuthNote("otp_code", code);
+        MFAFlowState.get(context).set(Field.OTP_CODE, code);
     }
     
     /**
      * Get code from session
      */
     protected String getCodeFromSession(AuthenticationFlowContext context) {
-        return context.getAuthenticationSession().getAuthNote("otp_code");
+        return MFAFlowState.get(context).get(Field.OTP_CODE);
     }
 }
\ No newline at end of file
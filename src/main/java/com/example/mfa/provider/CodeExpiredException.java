@@ -0,0 +1,11 @@
+package com.example.mfa.provider;
+
+/**
+ * Thrown when the pending code can no longer be checked and a new one has to be requested
+ */
+public class CodeExpiredException extends MFAException {
+    
+    public CodeExpiredException(String message) {
+        super(message);
+    }
+}
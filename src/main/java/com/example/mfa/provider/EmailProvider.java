@@ -4,6 +4,7 @@ import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.UserModel;
 import com.example.mfa.config.MFAConfig;
 import com.example.mfa.service.EmailServiceAdapter;
+import com.example.mfa.util.MFAProfile;
 import com.example.mfa.util.ValidationUtil;
 
 /**
@@ -48,6 +49,8 @@ public class EmailProvider extends AbstractMFAProvider {
             user.setEmailVerified(true);
         }
         
+        // The address itself stays in the user's email field
+        MFAProfile.get(user, config.isProfileStorageEnabled()).markEnrolled(getType());
         return true;
     }
     
@@ -2,6 +2,7 @@ package com.example.mfa.provider;
 
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.UserModel;
+import com.example.mfa.service.OutboundScheduler.Priority;
 
 /**
  * Strategy Pattern: Interface for all MFA providers
@@ -19,10 +20,28 @@ public interface MFAProvider {
      */
     void sendVerificationCode(AuthenticationFlowContext context, UserModel user) throws MFAException;
     
+    /**
+     * Send a verification code in the given outbound priority class
+     */
+    default void sendVerificationCode(AuthenticationFlowContext context, UserModel user, Priority priority)
+            throws MFAException {
+        sendVerificationCode(context, user);
+    }
+    
+    /**
+     * Send an additional, caller-chosen code without replacing the session's own code
+     * Used to hedge a slow delivery on another channel, returns false if this provider
+     * cannot deliver a given code
+     */
+    default boolean sendHedgeCode(AuthenticationFlowContext context, UserModel user, String code) throws MFAException {
+        return false;
+    }
+    
     /**
      * Verify the provided code
+     * @throws CodeExpiredException if the pending code can no longer be checked
      */
-    boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code);
+    boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code) throws CodeExpiredException;
     
     /**
      * Configure this provider for the user
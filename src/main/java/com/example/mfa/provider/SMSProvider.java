@@ -3,41 +3,241 @@ package com.example.mfa.provider;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.UserModel;
 import com.example.mfa.config.MFAConfig;
+import com.example.mfa.service.RemoteVerifyingGateway;
+import com.example.mfa.service.SmsGateway;
+import com.example.mfa.service.SmsGatewayRegistry;
+import com.example.mfa.service.SmsRouter;
 import com.example.mfa.service.TwilioServiceAdapter;
+import com.example.mfa.util.MFAFlowState;
+import com.example.mfa.util.MFAFlowState.Field;
+import com.example.mfa.util.MFAProfile;
 import com.example.mfa.util.ValidationUtil;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
 /**
  * Strategy Pattern: Concrete implementation for SMS MFA
+ * Messages are delivered through the configured SMS gateways, ordered by the {@link SmsRouter}
+ * and failing over to the next gateway when a send fails.
+ * In "verify" mode gateways with remote verification (Twilio Verify) send and check the code.
+ * Codes are pre-validated locally and verification outcomes are cached in the authentication
+ * session so that only plausible, new codes reach the gateway.
+ * In "local" mode, and for gateways without remote verification, the generated code is sent
+ * as a plain SMS and verified from the session.
  */
 public class SMSProvider extends AbstractMFAProvider {
     
-    private final TwilioServiceAdapter twilioService;
+    private static final int CODE_LENGTH = 6;
+    // Twilio Verify services send 4 to 10 digit codes, the length is set on the service
+    private static final int MIN_VERIFY_CODE_LENGTH = 4;
+    private static final int MAX_VERIFY_CODE_LENGTH = 10;
+    private static final String MESSAGE_FORMAT = "Your verification code is: %s";
+    
+    // Flow state caching the last Twilio verification outcome
+    private static final long OUTCOME_CACHE_TTL_MILLIS = 60 * 1000L;
+    private static final String OUTCOME_APPROVED = "A";
+    private static final String OUTCOME_DENIED = "D";
+    private static final String OUTCOME_CLOSED = "X";
+    
+    // Flow state recording which gateway sent the code and how it is verified
+    private static final String VERIFY_REMOTE = "R";
+    private static final String VERIFY_LOCAL = "L";
+    
+    private final SmsGatewayRegistry gatewayRegistry;
+    private final SmsRouter router;
+    private final List<SmsGateway> gateways;
+    private final boolean localVerification;
     
     public SMSProvider(MFAConfig config) {
         super(config);
-        this.twilioService = TwilioServiceAdapter.getInstance(config);
+        this.gatewayRegistry = SmsGatewayRegistry.getInstance();
+        this.router = new SmsRouter(config, gatewayRegistry);
+        this.gateways = gatewayRegistry.createGateways(config);
+        this.localVerification = config.isSmsLocalVerification();
     }
     
     @Override
     public boolean isConfiguredFor(UserModel user) {
-        String phoneNumber = user.getFirstAttribute("phoneNumber");
+        String phoneNumber = getPhoneNumber(user);
         return phoneNumber != null && !phoneNumber.isEmpty();
     }
     
     @Override
     protected void sendCode(AuthenticationFlowContext context, UserModel user, String code) throws Exception {
-        String phoneNumber = user.getFirstAttribute("phoneNumber");
+        String phoneNumber = getPhoneNumber(user);
         if (phoneNumber == null || phoneNumber.isEmpty()) {
             throw new MFAException("Phone number not configured");
         }
         
-        twilioService.sendVerificationCode(phoneNumber, code);
+        // A new code invalidates any cached outcome
+        MFAFlowState.get(context).remove(Field.SMS_VERIFY_OUTCOME);
+        
+        String realmId = context.getRealm().getId();
+        Exception lastError = null;
+        for (SmsGateway gateway : router.route(realmId, phoneNumber, getSendableGateways())) {
+            boolean remote = usesRemoteVerification(gateway);
+            long start = System.nanoTime();
+            try {
+                if (remote) {
+                    gateway.sendVerificationCode(phoneNumber, code);
+                } else {
+                    gateway.sendMessage(phoneNumber, String.format(MESSAGE_FORMAT, code));
+                }
+                router.recordOutcome(realmId, gateway.getId(), elapsedMillis(start), true);
+                MFAFlowState.get(context).set(Field.SMS_GATEWAY,
+                    gateway.getId() + ":" + (remote ? VERIFY_REMOTE : VERIFY_LOCAL));
+                return;
+            } catch (Exception e) {
+                router.recordOutcome(realmId, gateway.getId(), elapsedMillis(start), false);
+                logger.warn("SMS gateway " + gateway.getId() + " failed, trying next gateway: " + e.getMessage());
+                lastError = e;
+            }
+        }
+        
+        throw new MFAException("No SMS gateway could deliver the code", lastError);
+    }
+    
+    /**
+     * Gateways able to deliver in the current mode, or all of them in development mode
+     */
+    private List<SmsGateway> getSendableGateways() {
+        List<SmsGateway> sendable = new ArrayList<>();
+        for (SmsGateway gateway : gateways) {
+            boolean ready = usesRemoteVerification(gateway) ? gateway.isConfigured() : gateway.isMessagingConfigured();
+            if (ready) {
+                sendable.add(gateway);
+            }
+        }
+        return sendable.isEmpty() ? gateways : sendable;
+    }
+    
+    private boolean usesRemoteVerification(SmsGateway gateway) {
+        return !localVerification && gateway instanceof RemoteVerifyingGateway;
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
     }
     
     @Override
-    public boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code) {
-        String phoneNumber = user.getFirstAttribute("phoneNumber");
-        return twilioService.verifyCode(phoneNumber, code);
+    public boolean sendHedgeCode(AuthenticationFlowContext context, UserModel user, String code) {
+        // Sending would replace the gateway state of the primary code, and Verify ignores given codes
+        return false;
+    }
+    
+    @Override
+    public boolean verifyCode(AuthenticationFlowContext context, UserModel user, String code)
+            throws CodeExpiredException {
+        String trimmed = code != null ? code.trim() : null;
+        String note = MFAFlowState.get(context).get(Field.SMS_GATEWAY);
+        boolean local = note == null || note.endsWith(":" + VERIFY_LOCAL);
+        boolean wellFormed = local ? ValidationUtil.isValidVerificationCode(trimmed, CODE_LENGTH)
+            : ValidationUtil.isValidVerificationCode(trimmed, MIN_VERIFY_CODE_LENGTH, MAX_VERIFY_CODE_LENGTH);
+        if (!wellFormed) {
+            logger.debug("Rejected malformed SMS code locally for user: " + user.getUsername());
+            return false;
+        }
+        
+        if (local) {
+            return super.verifyCode(context, user, trimmed);
+        }
+        
+        RemoteVerifyingGateway gateway = findRemoteGateway(note.substring(0, note.lastIndexOf(':')));
+        if (gateway == null) {
+            // Nothing can check the pending code any more, the user has to request a new one
+            throw new CodeExpiredException("SMS gateway that sent the code is no longer configured");
+        }
+        
+        String codeHash = digestCode(trimmed);
+        Boolean cached = getCachedOutcome(context, codeHash);
+        if (cached != null) {
+            logger.debug("Answered SMS verification from cached outcome for user: " + user.getUsername());
+            return cached;
+        }
+        
+        String phoneNumber = getPhoneNumber(user);
+        String status = gateway.checkVerification(phoneNumber, trimmed);
+        if (status == null) {
+            // Upstream error, nothing final to cache
+            return false;
+        }
+        
+        boolean approved = TwilioServiceAdapter.STATUS_APPROVED.equals(status);
+        String outcome;
+        if (approved) {
+            outcome = OUTCOME_APPROVED;
+        } else if (TwilioServiceAdapter.STATUS_PENDING.equals(status)) {
+            outcome = OUTCOME_DENIED;
+        } else {
+            // Expired, canceled or max attempts reached - no code can succeed any more
+            outcome = OUTCOME_CLOSED;
+        }
+        cacheOutcome(context, codeHash, outcome);
+        return approved;
+    }
+    
+    /**
+     * Find the gateway that sent the code and has to check it, null if it is no longer configured
+     */
+    private RemoteVerifyingGateway findRemoteGateway(String gatewayId) {
+        for (SmsGateway gateway : gateways) {
+            if (gateway.getId().equals(gatewayId) && gateway instanceof RemoteVerifyingGateway) {
+                return (RemoteVerifyingGateway) gateway;
+            }
+        }
+        logger.warn("SMS gateway " + gatewayId + " that sent the code is no longer configured");
+        return null;
+    }
+    
+    /**
+     * Look up a cached outcome for this code, returns null if the upstream must be asked
+     */
+    private Boolean getCachedOutcome(AuthenticationFlowContext context, String codeHash) {
+        String note = MFAFlowState.get(context).get(Field.SMS_VERIFY_OUTCOME);
+        if (note == null) {
+            return null;
+        }
+        
+        // Format: <outcome>:<expiresAtMillis>:<codeHash>
+        String[] parts = note.split(":", 3);
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            if (Long.parseLong(parts[1]) < System.currentTimeMillis()) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        
+        if (OUTCOME_CLOSED.equals(parts[0])) {
+            return Boolean.FALSE;
+        }
+        if (!parts[2].equals(codeHash)) {
+            return null;
+        }
+        return OUTCOME_APPROVED.equals(parts[0]);
+    }
+    
+    private void cacheOutcome(AuthenticationFlowContext context, String codeHash, String outcome) {
+        long expiresAt = System.currentTimeMillis() + OUTCOME_CACHE_TTL_MILLIS;
+        MFAFlowState.get(context).set(Field.SMS_VERIFY_OUTCOME,
+            outcome + ":" + expiresAt + ":" + codeHash);
+    }
+    
+    private static String digestCode(String code) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
     
     @Override
@@ -46,10 +246,16 @@ public class SMSProvider extends AbstractMFAProvider {
             return false;
         }
         
-        user.setSingleAttribute("phoneNumber", phoneNumber);
+        MFAProfile profile = MFAProfile.get(user, config.isProfileStorageEnabled());
+        profile.set(MFAProfile.Field.PHONE_NUMBER, phoneNumber);
+        profile.markEnrolled(getType());
         return true;
     }
     
+    private String getPhoneNumber(UserModel user) {
+        return MFAProfile.get(user, config.isProfileStorageEnabled()).get(MFAProfile.Field.PHONE_NUMBER);
+    }
+    
     @Override
     public String getType() {
         return "sms";
@@ -2,6 +2,7 @@ package com.example.mfa.provider;
 
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.credential.CredentialModel;
 import org.keycloak.credential.CredentialProvider;
 import org.keycloak.credential.OTPCredentialProvider;
 import org.keycloak.models.KeycloakSession;
@@ -9,6 +10,8 @@ import org.keycloak.models.UserCredentialModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.credential.OTPCredentialModel;
 import com.example.mfa.config.MFAConfig;
+import com.example.mfa.util.MFAFlowState;
+import com.example.mfa.util.MFAFlowState.Field;
 
 /**
  * Strategy Pattern: Concrete implementation for TOTP MFA
@@ -34,34 +37,34 @@ public class TOTPProvider extends AbstractMFAProvider {
         logger.info("TOTP validation prepared for user: " + user.getUsername());
     }
     
+    @Override
+    protected boolean sendsMessages() {
+        return false;
+    }
+    
+    @Override
+    public boolean sendHedgeCode(AuthenticationFlowContext context, UserModel user, String code) {
+        // Codes come from the user's authenticator app, nothing can be sent
+        return false;
+    }
+    
     @Override
     public boolean verifyCode(AuthenticationFlowContext context, UserModel user, String enteredCode) {
         logger.info("Starting TOTP validation for user: " + user.getUsername());
         
         try {
-            // Get OTP credential provider from session
-            KeycloakSession session = context.getSession();
-            OTPCredentialProvider otpCredProvider = (OTPCredentialProvider) session
-                .getProvider(CredentialProvider.class, "keycloak-otp");
-            
-            // Check if user has OTP configured
-            if (!otpCredProvider.isConfiguredFor(context.getRealm(), user)) {
+            String credentialId = getCredentialId(context, user);
+            if (credentialId == null) {
                 logger.warn("User does not have TOTP configured: " + user.getUsername());
                 return false;
             }
             
-            // Get the default credential ID for this user
-            String credentialId = otpCredProvider
-                .getDefaultCredential(session, context.getRealm(), user)
-                .getId();
-            
-            // Validate the OTP using the credential provider directly
-            boolean valid = otpCredProvider.isValid(
-                context.getRealm(), 
-                user, 
+            // Keycloak's validator also claims the code cluster-wide unless the OTP policy allows reuse
+            boolean valid = getCredentialProvider(context.getSession()).isValid(
+                context.getRealm(),
+                user,
                 new UserCredentialModel(credentialId, OTPCredentialModel.TYPE, enteredCode)
             );
-            
             logger.info("TOTP validation result for " + user.getUsername() + ": " + valid);
             return valid;
         } catch (Exception e) {
@@ -70,6 +73,28 @@ public class TOTPProvider extends AbstractMFAProvider {
         }
     }
     
+    /**
+     * Get the ID of the user's default OTP credential, cached in the flow state after the first lookup
+     */
+    private String getCredentialId(AuthenticationFlowContext context, UserModel user) {
+        String credentialId = MFAFlowState.get(context).get(Field.TOTP_CREDENTIAL);
+        if (credentialId != null) {
+            return credentialId;
+        }
+        
+        CredentialModel credential = getCredentialProvider(context.getSession())
+            .getDefaultCredential(context.getSession(), context.getRealm(), user);
+        if (credential == null) {
+            return null;
+        }
+        MFAFlowState.get(context).set(Field.TOTP_CREDENTIAL, credential.getId());
+        return credential.getId();
+    }
+    
+    private static OTPCredentialProvider getCredentialProvider(KeycloakSession session) {
+        return (OTPCredentialProvider) session.getProvider(CredentialProvider.class, "keycloak-otp");
+    }
+    
     @Override
     public boolean configure(AuthenticationFlowContext context, UserModel user, String configValue) {
         // Add the required action to configure TOTP
@@ -96,4 +121,4 @@ public class TOTPProvider extends AbstractMFAProvider {
     public String getDisplayName() {
         return "Authenticator App";
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.UserModel;
 import com.example.mfa.config.MFAConfig;
 import com.example.mfa.service.TelegramServiceAdapter;
+import com.example.mfa.util.MFAProfile;
 import com.example.mfa.util.ValidationUtil;
 
 /**
@@ -20,13 +21,13 @@ public class TelegramProvider extends AbstractMFAProvider {
     
     @Override
     public boolean isConfiguredFor(UserModel user) {
-        String telegramId = user.getFirstAttribute("telegramId");
+        String telegramId = getTelegramId(user);
         return telegramId != null && !telegramId.isEmpty();
     }
     
     @Override
     protected void sendCode(AuthenticationFlowContext context, UserModel user, String code) throws Exception {
-        String telegramId = user.getFirstAttribute("telegramId");
+        String telegramId = getTelegramId(user);
         if (telegramId == null || telegramId.isEmpty()) {
             throw new MFAException("Telegram ID not configured");
         }
@@ -40,10 +41,16 @@ public class TelegramProvider extends AbstractMFAProvider {
             return false;
         }
         
-        user.setSingleAttribute("telegramId", telegramId);
+        MFAProfile profile = MFAProfile.get(user, config.isProfileStorageEnabled());
+        profile.set(MFAProfile.Field.TELEGRAM_ID, telegramId);
+        profile.markEnrolled(getType());
         return true;
     }
     
+    private String getTelegramId(UserModel user) {
+        return MFAProfile.get(user, config.isProfileStorageEnabled()).get(MFAProfile.Field.TELEGRAM_ID);
+    }
+    
     @Override
     public String getType() {
         return "telegram";
@@ -0,0 +1,354 @@
+package com.example.mfa.resource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+import com.example.mfa.authenticator.CustomMFAAuthenticatorFactory;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.config.MFAConfigLocator;
+import com.example.mfa.factory.MFAProviderFactory;
+import com.example.mfa.provider.MFAProvider;
+import com.example.mfa.util.ValidationUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams phone numbers and Telegram IDs from a CSV or JSON-lines upload onto users
+ * Rows are validated with the providers' own rules and applied in batched
+ * transactions, only one batch is held in memory. A row is applied fully or not at all. Per-row errors and progress are
+ * written back as JSON lines while the upload is processed.
+ */
+public class BulkEnrollmentImporter {
+    private static final Logger logger = Logger.getLogger(BulkEnrollmentImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int MAX_BATCH_SIZE = 5000;
+
+    // Recognized columns (CSV header) and fields (JSON lines)
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_USERNAME = "username";
+    private static final String FIELD_EMAIL = "email";
+    private static final String FIELD_PHONE_NUMBER = "phoneNumber";
+    private static final String FIELD_TELEGRAM_ID = "telegramId";
+    private static final String[] FIELDS = {FIELD_ID, FIELD_USERNAME, FIELD_EMAIL, FIELD_PHONE_NUMBER, FIELD_TELEGRAM_ID};
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final int batchSize;
+    private final boolean csv;
+    // Created from the realm's authenticator config on the first batch
+    private MFAProvider smsProvider;
+    private MFAProvider telegramProvider;
+
+    private int processed;
+    private int updated;
+    private int failed;
+
+    public BulkEnrollmentImporter(KeycloakSessionFactory sessionFactory, String realmId, int batchSize, boolean csv) {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+        this.csv = csv;
+    }
+
+    /**
+     * Import all rows from the input, writing errors and progress to the output
+     */
+    public void run(InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+
+        String[] header = null;
+        List<Row> batch = new ArrayList<>(batchSize);
+        int lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            if (csv && header == null) {
+                header = parseHeader(line);
+                if (header == null) {
+                    writeLine(writer, error(lineNumber, null, "CSV header must name a user column (id, username or email)"));
+                    writer.flush();
+                    return;
+                }
+                continue;
+            }
+
+            batch.add(parseRow(lineNumber, line, header));
+            if (batch.size() >= batchSize) {
+                applyBatch(batch, writer);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            applyBatch(batch, writer);
+        }
+
+        Map<String, Object> summary = counters("summary");
+        writeLine(writer, summary);
+        writer.flush();
+        logger.info("Bulk enrollment for realm " + realmId + " finished: " + summary);
+    }
+
+    /**
+     * Apply one batch in its own transaction, a failing transaction fails every row of the batch
+     */
+    private void applyBatch(List<Row> batch, Writer writer) throws IOException {
+        List<Map<String, Object>> errors = new ArrayList<>();
+        int[] batchUpdated = new int[1];
+
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                session.getContext().setRealm(realm);
+                if (smsProvider == null) {
+                    createProviders(realm);
+                }
+                for (Row row : batch) {
+                    if (applyRow(session, realm, row, errors)) {
+                        batchUpdated[0]++;
+                    }
+                }
+            });
+            updated += batchUpdated[0];
+            failed += batch.size() - batchUpdated[0];
+            for (Map<String, Object> error : errors) {
+                writeLine(writer, error);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Bulk enrollment batch starting at line " + batch.get(0).line + " failed", e);
+            failed += batch.size();
+            writeLine(writer, error(batch.get(0).line, null,
+                "Batch of " + batch.size() + " rows rolled back: " + e.getMessage()));
+        }
+
+        processed += batch.size();
+        writeLine(writer, counters("progress"));
+        writer.flush();
+    }
+
+    /**
+     * Create the providers with the realm's authenticator config, so values are stored the way logins read them
+     * A config with profile storage enabled wins, profiles are read even where the option is off
+     */
+    private void createProviders(RealmModel realm) {
+        List<AuthenticatorConfigModel> models =
+            MFAConfigLocator.findConfigModels(realm, CustomMFAAuthenticatorFactory.PROVIDER_ID);
+        AuthenticatorConfigModel configModel = models.isEmpty() ? null : models.get(0);
+        for (AuthenticatorConfigModel model : models) {
+            if (new MFAConfig(model).isProfileStorageEnabled()) {
+                configModel = model;
+                break;
+            }
+        }
+        smsProvider = MFAProviderFactory.getInstance().createProvider("sms", configModel);
+        telegramProvider = MFAProviderFactory.getInstance().createProvider("telegram", configModel);
+    }
+
+    private boolean applyRow(KeycloakSession session, RealmModel realm, Row row, List<Map<String, Object>> errors) {
+        if (row.error != null) {
+            errors.add(error(row.line, null, row.error));
+            return false;
+        }
+
+        UserModel user = findUser(session, realm, row);
+        if (user == null) {
+            errors.add(error(row.line, null, "User not found"));
+            return false;
+        }
+
+        // Validate every field before writing any, so a rejected row leaves the user untouched
+        boolean valid = true;
+        String phoneNumber = row.values.get(FIELD_PHONE_NUMBER);
+        if (phoneNumber != null && !ValidationUtil.isValidPhoneNumber(phoneNumber)) {
+            errors.add(error(row.line, FIELD_PHONE_NUMBER, "Invalid phone number"));
+            valid = false;
+        }
+        String telegramId = row.values.get(FIELD_TELEGRAM_ID);
+        if (telegramId != null && !ValidationUtil.isValidTelegramId(telegramId)) {
+            errors.add(error(row.line, FIELD_TELEGRAM_ID, "Invalid Telegram ID"));
+            valid = false;
+        }
+        if (!valid) {
+            return false;
+        }
+
+        if (phoneNumber != null) {
+            smsProvider.configure(null, user, phoneNumber);
+        }
+        if (telegramId != null) {
+            telegramProvider.configure(null, user, telegramId);
+        }
+        return true;
+    }
+
+    private UserModel findUser(KeycloakSession session, RealmModel realm, Row row) {
+        if (row.values.containsKey(FIELD_ID)) {
+            return session.users().getUserById(realm, row.values.get(FIELD_ID));
+        }
+        if (row.values.containsKey(FIELD_USERNAME)) {
+            return session.users().getUserByUsername(realm, row.values.get(FIELD_USERNAME));
+        }
+        return session.users().getUserByEmail(realm, row.values.get(FIELD_EMAIL));
+    }
+
+    /**
+     * Map CSV header columns to field names, null when no user column is present
+     */
+    private static String[] parseHeader(String line) {
+        List<String> columns = splitCsv(line);
+        String[] header = new String[columns.size()];
+        boolean hasUserColumn = false;
+        for (int i = 0; i < header.length; i++) {
+            header[i] = canonicalField(columns.get(i));
+            if (FIELD_ID.equals(header[i]) || FIELD_USERNAME.equals(header[i]) || FIELD_EMAIL.equals(header[i])) {
+                hasUserColumn = true;
+            }
+        }
+        return hasUserColumn ? header : null;
+    }
+
+    private Row parseRow(int lineNumber, String line, String[] header) {
+        Row row = new Row(lineNumber);
+        try {
+            if (csv) {
+                List<String> cells = splitCsv(line);
+                for (int i = 0; i < header.length && i < cells.size(); i++) {
+                    row.put(header[i], cells.get(i));
+                }
+            } else {
+                JsonNode json = JsonSerialization.mapper.readTree(line);
+                if (!json.isObject()) {
+                    row.error = "Expected a JSON object";
+                    return row;
+                }
+                json.fields().forEachRemaining(field -> {
+                    if (field.getValue().isValueNode()) {
+                        row.put(canonicalField(field.getKey()), field.getValue().asText());
+                    }
+                });
+            }
+        } catch (IOException e) {
+            row.error = "Malformed JSON";
+            return row;
+        }
+
+        if (!row.values.containsKey(FIELD_ID) && !row.values.containsKey(FIELD_USERNAME)
+                && !row.values.containsKey(FIELD_EMAIL)) {
+            row.error = "Missing user (id, username or email)";
+        } else if (!row.values.containsKey(FIELD_PHONE_NUMBER) && !row.values.containsKey(FIELD_TELEGRAM_ID)) {
+            row.error = "Missing phoneNumber or telegramId";
+        }
+        return row;
+    }
+
+    private static String canonicalField(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT);
+        for (String field : FIELDS) {
+            if (field.toLowerCase(Locale.ROOT).equals(normalized)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Split a CSV line, supporting double-quoted cells with "" escapes
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString().trim());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString().trim());
+        return cells;
+    }
+
+    private Map<String, Object> counters(String type) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("type", type);
+        result.put("processed", processed);
+        result.put("updated", updated);
+        result.put("failed", failed);
+        return result;
+    }
+
+    private static Map<String, Object> error(int line, String field, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("type", "error");
+        result.put("line", line);
+        if (field != null) {
+            result.put("field", field);
+        }
+        result.put("message", message);
+        return result;
+    }
+
+    private static void writeLine(Writer writer, Map<String, Object> value) throws IOException {
+        writer.write(JsonSerialization.mapper.writeValueAsString(value));
+        writer.write('\n');
+    }
+
+    /**
+     * One parsed upload row, values are keyed by canonical field name
+     */
+    private static final class Row {
+        private final int line;
+        private final Map<String, String> values = new LinkedHashMap<>();
+        private String error;
+
+        Row(int line) {
+            this.line = line;
+        }
+
+        void put(String field, String value) {
+            if (field != null && value != null && !value.trim().isEmpty()) {
+                values.put(field, value.trim());
+            }
+        }
+    }
+}
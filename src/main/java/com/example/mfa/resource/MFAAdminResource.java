@@ -0,0 +1,130 @@
+package com.example.mfa.resource;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import com.example.mfa.service.ChannelHealthMonitor;
+import com.example.mfa.stats.MFAStatsRegistry;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin REST endpoints of the MFA plugin
+ * Available under /admin/realms/{realm}/mfa
+ */
+public class MFAAdminResource {
+
+    public static final String MEDIA_TYPE_CSV = "text/csv";
+    public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final AdminPermissionEvaluator auth;
+
+    public MFAAdminResource(KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth) {
+        this.session = session;
+        this.realm = realm;
+        this.auth = auth;
+    }
+
+    /**
+     * Bulk import phone numbers and Telegram IDs from a CSV (with header) or JSON-lines upload
+     * Streams errors and progress back as JSON lines
+     */
+    @POST
+    @Path("enrollments")
+    @Consumes({MEDIA_TYPE_CSV, MEDIA_TYPE_NDJSON, "application/jsonl"})
+    @Produces(MEDIA_TYPE_NDJSON)
+    public Response importEnrollments(InputStream body,
+                                      @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                      @QueryParam("batchSize") Integer batchSize) {
+        auth.users().requireManage();
+
+        boolean csv = contentType != null && contentType.toLowerCase().startsWith(MEDIA_TYPE_CSV);
+        BulkEnrollmentImporter importer = new BulkEnrollmentImporter(session.getKeycloakSessionFactory(),
+            realm.getId(), batchSize != null ? batchSize : BulkEnrollmentImporter.DEFAULT_BATCH_SIZE, csv);
+
+        StreamingOutput output = out -> importer.run(body, out);
+        return Response.ok(output, MEDIA_TYPE_NDJSON).build();
+    }
+    
+    /**
+     * Export the MFA enrollment status of all users as CSV or JSON lines
+     * JSON lines end with a summary entry, summaryOnly returns just the aggregate counts
+     */
+    @GET
+    @Path("enrollments")
+    @Produces({MEDIA_TYPE_NDJSON, MEDIA_TYPE_CSV})
+    public Response exportEnrollments(@QueryParam("format") String format,
+                                      @QueryParam("pageSize") Integer pageSize,
+                                      @QueryParam("summaryOnly") boolean summaryOnly) {
+        auth.users().requireView();
+
+        boolean csv = "csv".equalsIgnoreCase(format) && !summaryOnly;
+        EnrollmentReportExporter exporter = new EnrollmentReportExporter(session.getKeycloakSessionFactory(),
+            realm.getId(), pageSize != null ? pageSize : EnrollmentReportExporter.DEFAULT_PAGE_SIZE, csv, summaryOnly);
+
+        StreamingOutput output = exporter::run;
+        return Response.ok(output, csv ? MEDIA_TYPE_CSV : MEDIA_TYPE_NDJSON).build();
+    }
+    
+    /**
+     * Rolling statistics of the realm for the last 1, 5 and 60 minutes per MFA method
+     */
+    @GET
+    @Path("stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getStats() {
+        auth.realm().requireViewRealm();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("realm", realm.getName());
+        result.put("timestamp", System.currentTimeMillis());
+        result.put("windows", MFAStatsRegistry.getInstance().getStats(realm.getId()));
+        return result;
+    }
+    
+    /**
+     * Latest background probe results of the realm's MFA channels, with error details
+     * Readiness checks use the public summary at /realms/{realm}/mfa-health instead
+     */
+    @GET
+    @Path("health")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getHealth() {
+        auth.realm().requireViewRealm();
+
+        ChannelHealthMonitor monitor = ChannelHealthMonitor.getInstance();
+        List<ChannelHealthMonitor.ProbeResult> probes = monitor.getResults(realm.getId());
+        List<Map<String, Object>> channels = new ArrayList<>();
+        if (probes != null) {
+            for (ChannelHealthMonitor.ProbeResult probe : probes) {
+                Map<String, Object> channel = probe.toMap();
+                channel.put("stale", monitor.isStale(probe));
+                channels.add(channel);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("realm", realm.getName());
+        result.put("status", monitor.getRealmStatus(realm.getId()));
+        result.put("methods", monitor.getMethodStatuses(realm.getId()));
+        result.put("channels", channels);
+        return result;
+    }
+}
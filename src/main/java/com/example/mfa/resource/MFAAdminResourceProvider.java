@@ -0,0 +1,24 @@
+package com.example.mfa.resource;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+
+/**
+ * Exposes the MFA admin endpoints below the realm admin API
+ */
+public class MFAAdminResourceProvider implements AdminRealmResourceProvider {
+
+    @Override
+    public Object getResource(KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth,
+                              AdminEventBuilder adminEvent) {
+        return new MFAAdminResource(session, realm, auth);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.mfa.resource;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import com.example.mfa.service.ChannelHealthMonitor;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unauthenticated health summary of the realm's MFA channels for load balancers and monitors
+ * Answers 503 while the realm is degraded and 200 otherwise, including before the first probe.
+ * Only statuses are returned, error details stay in the admin health endpoint
+ */
+public class MFAHealthResource {
+
+    private final KeycloakSession session;
+
+    public MFAHealthResource(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getReadiness() {
+        RealmModel realm = session.getContext().getRealm();
+        ChannelHealthMonitor monitor = ChannelHealthMonitor.getInstance();
+
+        String status = monitor.getRealmStatus(realm.getId());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", status);
+        result.put("methods", monitor.getMethodStatuses(realm.getId()));
+
+        CacheControl noCache = new CacheControl();
+        noCache.setNoCache(true);
+        Response.Status httpStatus = ChannelHealthMonitor.STATUS_DEGRADED.equals(status)
+            ? Response.Status.SERVICE_UNAVAILABLE : Response.Status.OK;
+        return Response.status(httpStatus).entity(result).type(MediaType.APPLICATION_JSON).cacheControl(noCache).build();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.mfa.resource;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Exposes the MFA readiness summary below the realm's public endpoints
+ */
+public class MFAHealthResourceProvider implements RealmResourceProvider {
+
+    private final KeycloakSession session;
+
+    public MFAHealthResourceProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return new MFAHealthResource(session);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.mfa.resource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.util.JsonSerialization;
+import com.example.mfa.authenticator.CustomMFAAuthenticatorFactory;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.config.MFAConfigLocator;
+import com.example.mfa.service.BlockingIoExecutor;
+import com.example.mfa.service.OutboundScheduler;
+import com.example.mfa.service.TelegramLinkStore;
+import com.example.mfa.service.TelegramServiceAdapter;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives Telegram bot updates and completes deep-link enrollment
+ * A "/start <token>" message binds the sender's chat to the login waiting for that token
+ */
+public class TelegramWebhookResource {
+    private static final Logger logger = Logger.getLogger(TelegramWebhookResource.class);
+
+    public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private static final String START_COMMAND = "/start";
+    private static final String LINKED_MESSAGE = "Your Telegram account is linked. Return to the login page to continue.";
+    private static final String EXPIRED_MESSAGE = "This link has expired. Please start again from the login page.";
+
+    private final KeycloakSession session;
+
+    public TelegramWebhookResource(KeycloakSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Handle one update, unrelated updates are acknowledged so Telegram does not retry them
+     */
+    @POST
+    @Path("webhook")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response receiveUpdate(@HeaderParam(SECRET_TOKEN_HEADER) String secretToken, String body) {
+        RealmModel realm = session.getContext().getRealm();
+        MFAConfig config = findConfig(realm, secretToken);
+        if (config == null) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+
+        JsonNode message;
+        try {
+            message = JsonSerialization.mapper.readTree(body).path("message");
+        } catch (IOException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        String text = message.path("text").asText("");
+        String chatId = message.path("chat").path("id").asText(null);
+        if (chatId == null || !text.startsWith(START_COMMAND + " ")) {
+            return Response.ok().build();
+        }
+
+        String token = text.substring(START_COMMAND.length()).trim();
+        boolean linked = TelegramLinkStore.bind(session, realm, token, chatId);
+        logger.info("Telegram deep link " + (linked ? "bound" : "rejected") + " for chat " + chatId
+            + " in realm " + realm.getName());
+
+        // Reply in the background, the webhook is answered without waiting for Telegram
+        TelegramServiceAdapter adapter = TelegramServiceAdapter.getInstance(config);
+        String realmId = realm.getId();
+        BlockingIoExecutor.getInstance()
+            .supply(() -> {
+                try (OutboundScheduler.Permit permit = OutboundScheduler.getInstance().acquire(realmId,
+                        OutboundScheduler.Priority.NOTIFICATION, config.getOutboundWeight(), config.getOutboundMaxConcurrent())) {
+                    adapter.sendMessage(chatId, linked ? LINKED_MESSAGE : EXPIRED_MESSAGE);
+                }
+                return null;
+            })
+            .exceptionally(e -> {
+                logger.warn("Could not reply to Telegram chat " + chatId + ": " + e.getMessage());
+                return null;
+            });
+        return Response.ok().build();
+    }
+
+    /**
+     * Find the realm's MFA config whose webhook secret matches, null if none does
+     */
+    private static MFAConfig findConfig(RealmModel realm, String secretToken) {
+        if (secretToken == null || secretToken.isEmpty()) {
+            return null;
+        }
+        byte[] provided = secretToken.getBytes(StandardCharsets.UTF_8);
+        for (MFAConfig config : MFAConfigLocator.findConfigs(realm, CustomMFAAuthenticatorFactory.PROVIDER_ID)) {
+            String secret = config.getTelegramWebhookSecret();
+            if (secret != null && !secret.isEmpty()
+                    && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), provided)) {
+                return config;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.mfa.resource;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Exposes the Telegram webhook below the realm's public endpoints
+ */
+public class TelegramWebhookResourceProvider implements RealmResourceProvider {
+
+    private final KeycloakSession session;
+
+    public TelegramWebhookResourceProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return new TelegramWebhookResource(session);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.mfa.resource;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Factory for the public Telegram webhook, served at /realms/{realm}/mfa-telegram
+ */
+public class TelegramWebhookResourceProviderFactory implements RealmResourceProviderFactory {
+
+    public static final String PROVIDER_ID = "mfa-telegram";
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new TelegramWebhookResourceProvider(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        // No initialization needed
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // No post-initialization needed
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.mfa.service;
+
+/**
+ * AIMD concurrency limiter for one upstream endpoint and credential
+ * The in-flight limit grows by one per window of successful calls and is cut on
+ * 429 and 5xx responses or rising latency. A 429 also blocks new calls until its
+ * Retry-After has passed. Callers wait briefly for a slot instead of failing.
+ */
+public class AdaptiveLimiter {
+
+    /**
+     * Outcome of a call, as far as the limiter is concerned
+     */
+    public enum Outcome {
+        SUCCESS,
+        // 429, the upstream asked us to slow down
+        THROTTLED,
+        // 5xx or timeout, the upstream is struggling
+        OVERLOADED,
+        // Client errors say nothing about upstream capacity
+        IGNORED
+    }
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 2000L;
+    // Used when a 429 carries no Retry-After
+    public static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L;
+
+    private static final double MIN_LIMIT = 1.0;
+    private static final double MAX_LIMIT = 64.0;
+    private static final double INITIAL_LIMIT = 8.0;
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final double OVERLOADED_BACKOFF = 0.8;
+    private static final double LATENCY_BACKOFF = 0.9;
+    // Latency above this multiple of the baseline is treated as queueing upstream
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // How fast the latency baseline drifts up towards recent samples
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final String name;
+    private final long maxWaitMillis;
+
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private long blockedUntil;
+    private double baselineMillis = -1;
+
+    public AdaptiveLimiter(String name, long maxWaitMillis) {
+        this.name = name;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Wait for a slot, at most the limiter's wait budget
+     * Every successful acquire must be followed by exactly one release
+     */
+    public synchronized void acquire() throws LimitExceededException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (blockedUntil > deadline) {
+                    throw new LimitExceededException(name + " is throttled for another "
+                        + (blockedUntil - now) + " ms");
+                }
+                if (now >= blockedUntil && inFlight < (int) limit) {
+                    inFlight++;
+                    return;
+                }
+                if (now >= deadline) {
+                    throw new LimitExceededException(name + " has " + inFlight + " calls in flight (limit "
+                        + (int) limit + ")");
+                }
+                // Releases wake us up early, a throttle only ends at its time
+                long wakeUp = now < blockedUntil ? blockedUntil : deadline;
+                wait(Math.max(1L, wakeUp - now));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LimitExceededException("Interrupted while waiting for " + name);
+        }
+    }
+
+    /**
+     * Release a slot and adjust the limit from the call's outcome
+     */
+    public synchronized void release(Outcome outcome, long latencyMillis, long retryAfterMillis) {
+        inFlight = Math.max(0, inFlight - 1);
+        switch (outcome) {
+            case SUCCESS:
+                if (baselineMillis < 0 || latencyMillis < baselineMillis) {
+                    baselineMillis = latencyMillis;
+                } else {
+                    baselineMillis += (latencyMillis - baselineMillis) * BASELINE_DRIFT;
+                }
+                if (latencyMillis > LATENCY_TOLERANCE * Math.max(1.0, baselineMillis)) {
+                    limit = Math.max(MIN_LIMIT, limit * LATENCY_BACKOFF);
+                } else {
+                    limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+                }
+                break;
+            case THROTTLED:
+                limit = Math.max(MIN_LIMIT, limit * THROTTLED_BACKOFF);
+                long retryAfter = retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS;
+                blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + retryAfter);
+                break;
+            case OVERLOADED:
+                limit = Math.max(MIN_LIMIT, limit * OVERLOADED_BACKOFF);
+                break;
+            default:
+                break;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Check if a delay fits the wait budget, e.g. before retrying after a 429
+     */
+    public boolean canWait(long delayMillis) {
+        return delayMillis <= maxWaitMillis;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Map an HTTP status code to a limiter outcome
+     */
+    public static Outcome classify(int statusCode) {
+        if (statusCode == 429) {
+            return Outcome.THROTTLED;
+        }
+        if (statusCode >= 500) {
+            return Outcome.OVERLOADED;
+        }
+        return statusCode / 100 == 2 ? Outcome.SUCCESS : Outcome.IGNORED;
+    }
+
+    /**
+     * Parse a Retry-After header given in seconds, -1 if absent or not in seconds
+     */
+    public static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1L;
+        }
+        try {
+            return Math.max(0L, Long.parseLong(retryAfter.trim()) * 1000L);
+        } catch (NumberFormatException e) {
+            // HTTP-date values are not used by Twilio or Telegram
+            return -1L;
+        }
+    }
+
+    /**
+     * Thrown when no slot became free within the wait budget
+     */
+    public static class LimitExceededException extends Exception {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton Pattern: Executor for blocking outbound I/O of the adapters
+ * Runs tasks on virtual threads when the JVM provides them (Java 21+), with concurrency
+ * bounded by a semaphore, and falls back to a bounded platform thread pool otherwise
+ * The build targets Java 11, so virtual threads are looked up reflectively
+ */
+public class BlockingIoExecutor {
+    private static final Logger logger = Logger.getLogger(BlockingIoExecutor.class);
+
+    // Concurrent blocking calls allowed on virtual threads
+    private static final int MAX_VIRTUAL_CONCURRENCY = 1000;
+    // Platform thread fallback, the queue absorbs short bursts
+    private static final int PLATFORM_THREADS = 32;
+    private static final int PLATFORM_QUEUE_SIZE = 1000;
+
+    private static BlockingIoExecutor instance;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean virtual;
+
+    private BlockingIoExecutor() {
+        ExecutorService virtualExecutor = createVirtualThreadExecutor();
+        this.virtual = virtualExecutor != null;
+        if (virtual) {
+            this.executor = virtualExecutor;
+            this.permits = new Semaphore(MAX_VIRTUAL_CONCURRENCY);
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(PLATFORM_THREADS, PLATFORM_THREADS,
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(PLATFORM_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "mfa-io-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            // The pool size already bounds concurrency
+            this.permits = null;
+        }
+        logger.info("Blocking MFA adapter I/O runs on " + (virtual ? "virtual threads" : "a platform thread pool"));
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized BlockingIoExecutor getInstance() {
+        if (instance == null) {
+            instance = new BlockingIoExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Check if tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Run a blocking task, the future fails when the task throws or the executor is saturated
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (permits != null) {
+                        permits.acquire();
+                    }
+                    try {
+                        future.complete(task.call());
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(e);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new CompletionException("Too many concurrent MFA adapter calls", e));
+        }
+        return future;
+    }
+
+    /**
+     * Get the executor for the shared HTTP client's internal tasks, null to keep the client's default
+     * Only virtual threads are handed out, a bounded pool could stall the client
+     */
+    public Executor getHttpClientExecutor() {
+        return virtual ? executor : null;
+    }
+
+    /**
+     * Get an executor running tasks after a delay on this executor, for scheduled retries
+     */
+    public Executor delayed(long delay, TimeUnit unit) {
+        return CompletableFuture.delayedExecutor(delay, unit, executor);
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java versions before 21, or virtual threads not available
+            return null;
+        }
+    }
+}
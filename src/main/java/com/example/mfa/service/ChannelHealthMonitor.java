@@ -0,0 +1,347 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.config.MFAConfigLocator;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton Pattern: Background health probes of the MFA delivery channels
+ * Probes every configured SMS gateway, Telegram bot and realm SMTP server on a schedule,
+ * through the same adapters and pooled connections as logins, and caches the results
+ * so health requests never call an upstream themselves
+ */
+public class ChannelHealthMonitor {
+    private static final Logger logger = Logger.getLogger(ChannelHealthMonitor.class);
+
+    public static final String STATUS_UP = "UP";
+    public static final String STATUS_DOWN = "DOWN";
+    public static final String STATUS_NOT_CONFIGURED = "NOT_CONFIGURED";
+    // The last probe is older than STALE_AFTER_INTERVALS probe intervals
+    public static final String STATUS_STALE = "STALE";
+    // Realm summaries: some channel is down or stale, logins over other channels still work
+    public static final String STATUS_DEGRADED = "DEGRADED";
+    // No probe round has finished for the realm (or probes are disabled)
+    public static final String STATUS_UNKNOWN = "UNKNOWN";
+
+    private static final String[] METHODS = {"sms", "telegram", "email"};
+    private static final int STALE_AFTER_INTERVALS = 3;
+
+    private static final String SMTP_TIMEOUT_MILLIS = "5000";
+
+    private static ChannelHealthMonitor instance;
+
+    // Latest probe results per realm id
+    private final Map<String, List<ProbeResult>> results = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private volatile long intervalMillis;
+
+    private ChannelHealthMonitor() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized ChannelHealthMonitor getInstance() {
+        if (instance == null) {
+            instance = new ChannelHealthMonitor();
+        }
+        return instance;
+    }
+
+    /**
+     * Start probing every interval, the first round runs right away
+     */
+    public synchronized void start(KeycloakSessionFactory sessionFactory, String authenticatorId, int intervalSeconds) {
+        if (scheduler != null || intervalSeconds <= 0) {
+            return;
+        }
+        intervalMillis = intervalSeconds * 1000L;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mfa-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> probeAll(sessionFactory, authenticatorId),
+            0, intervalSeconds, TimeUnit.SECONDS);
+        logger.info("MFA channel health probes scheduled every " + intervalSeconds + " seconds");
+    }
+
+    /**
+     * Stop probing
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Get the latest probe results of a realm, null before its first probe round
+     */
+    public List<ProbeResult> getResults(String realmId) {
+        return results.get(realmId);
+    }
+
+    /**
+     * Check if a probe result is too old to be trusted, e.g. because probes hang
+     */
+    public boolean isStale(ProbeResult probe) {
+        long interval = intervalMillis;
+        return interval > 0 && System.currentTimeMillis() - probe.checkedAt > STALE_AFTER_INTERVALS * interval;
+    }
+
+    /**
+     * Check if recent probes found every channel of an MFA method down in the realm
+     * False while there are no fresh probe results, TOTP has no channel to probe
+     */
+    public boolean isMethodDown(String realmId, String method) {
+        return STATUS_DOWN.equals(getMethodStatus(realmId, method));
+    }
+
+    /**
+     * Get the status of an MFA method in the realm: UP while any of its channels is up,
+     * DOWN when all of them were recently found down, otherwise STALE, NOT_CONFIGURED or UNKNOWN
+     */
+    public String getMethodStatus(String realmId, String method) {
+        List<ProbeResult> probes = results.get(realmId);
+        if (probes == null) {
+            return STATUS_UNKNOWN;
+        }
+        boolean configured = false;
+        boolean stale = false;
+        for (ProbeResult probe : probes) {
+            boolean matches = "sms".equals(method) ? probe.channel.startsWith("sms-") : probe.channel.equals(method);
+            if (!matches || STATUS_NOT_CONFIGURED.equals(probe.status)) {
+                continue;
+            }
+            configured = true;
+            if (isStale(probe)) {
+                stale = true;
+            } else if (!STATUS_DOWN.equals(probe.status)) {
+                return STATUS_UP;
+            }
+        }
+        if (!configured) {
+            return STATUS_NOT_CONFIGURED;
+        }
+        return stale ? STATUS_STALE : STATUS_DOWN;
+    }
+
+    /**
+     * Get the status of every probed MFA method in the realm
+     */
+    public Map<String, String> getMethodStatuses(String realmId) {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        for (String method : METHODS) {
+            statuses.put(method, getMethodStatus(realmId, method));
+        }
+        return statuses;
+    }
+
+    /**
+     * Summarize the realm: UNKNOWN before the first probe round, DEGRADED when a method
+     * is down or its results are stale, UP otherwise
+     */
+    public String getRealmStatus(String realmId) {
+        if (results.get(realmId) == null) {
+            return STATUS_UNKNOWN;
+        }
+        for (String status : getMethodStatuses(realmId).values()) {
+            if (STATUS_DOWN.equals(status) || STATUS_STALE.equals(status)) {
+                return STATUS_DEGRADED;
+            }
+        }
+        return STATUS_UP;
+    }
+
+    /**
+     * Run one probe round over all realms
+     */
+    void probeAll(KeycloakSessionFactory sessionFactory, String authenticatorId) {
+        // Read the configuration in a short transaction, the probes themselves run outside of it
+        Map<String, List<AuthenticatorConfigModel>> configs = new HashMap<>();
+        Map<String, Map<String, String>> smtpConfigs = new HashMap<>();
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+                session.realms().getRealmsStream().forEach(realm -> {
+                    List<AuthenticatorConfigModel> realmConfigs = MFAConfigLocator.findConfigModels(realm, authenticatorId);
+                    if (!realmConfigs.isEmpty()) {
+                        configs.put(realm.getId(), realmConfigs);
+                        smtpConfigs.put(realm.getId(), resolveSmtpConfig(session, realm));
+                    }
+                }));
+        } catch (Exception e) {
+            logger.warn("Could not load MFA configurations for health probes: " + e.getMessage());
+            return;
+        }
+
+        // Probes block on upstream calls, run them side by side on the I/O executor
+        BlockingIoExecutor io = BlockingIoExecutor.getInstance();
+        Map<String, List<CompletableFuture<ProbeResult>>> pending = new HashMap<>();
+        for (Map.Entry<String, List<AuthenticatorConfigModel>> entry : configs.entrySet()) {
+            List<CompletableFuture<ProbeResult>> realmProbes = new ArrayList<>();
+            for (AuthenticatorConfigModel configModel : entry.getValue()) {
+                MFAConfig config = new MFAConfig(configModel);
+                String alias = configModel.getAlias();
+                for (SmsGateway gateway : SmsGatewayRegistry.getInstance().createGateways(config)) {
+                    realmProbes.add(io.supply(() -> probe(alias, "sms-" + gateway.getId(), gateway)));
+                }
+                TelegramServiceAdapter telegram = TelegramServiceAdapter.getInstance(config);
+                realmProbes.add(io.supply(() -> probe(alias, "telegram", telegram)));
+            }
+            Map<String, String> smtp = smtpConfigs.get(entry.getKey());
+            realmProbes.add(io.supply(() -> probeSmtp(smtp)));
+            pending.put(entry.getKey(), realmProbes);
+        }
+
+        for (Map.Entry<String, List<CompletableFuture<ProbeResult>>> entry : pending.entrySet()) {
+            List<ProbeResult> realmResults = new ArrayList<>();
+            for (CompletableFuture<ProbeResult> probe : entry.getValue()) {
+                try {
+                    realmResults.add(probe.join());
+                } catch (CompletionException e) {
+                    logger.warn("Health probe could not run: " + e.getMessage());
+                }
+            }
+            results.put(entry.getKey(), Collections.unmodifiableList(realmResults));
+        }
+        // Realms without MFA configuration no longer have results
+        results.keySet().retainAll(configs.keySet());
+    }
+
+    private ProbeResult probe(String configAlias, String channel, ExternalServiceAdapter adapter) {
+        if (!adapter.isConfigured()) {
+            return new ProbeResult(configAlias, channel, STATUS_NOT_CONFIGURED, -1L, null);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            adapter.checkHealth();
+            return new ProbeResult(configAlias, channel, STATUS_UP, System.currentTimeMillis() - start, null);
+        } catch (Exception e) {
+            logger.warn("Health probe of " + channel + " (" + configAlias + ") failed: " + e.getMessage());
+            return new ProbeResult(configAlias, channel, STATUS_DOWN, System.currentTimeMillis() - start, e.getMessage());
+        }
+    }
+
+    /**
+     * Connect (and log in, if the realm uses authentication) to the SMTP server without sending mail
+     */
+    private ProbeResult probeSmtp(Map<String, String> smtp) {
+        String host = smtp != null ? smtp.get("host") : null;
+        if (host == null || host.isEmpty()) {
+            return new ProbeResult(null, "email", STATUS_NOT_CONFIGURED, -1L, null);
+        }
+
+        boolean ssl = "true".equals(smtp.get("ssl"));
+        String port = smtp.get("port");
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.host", host);
+        props.setProperty("mail.smtp.port", port != null && !port.isEmpty() ? port : (ssl ? "465" : "25"));
+        props.setProperty("mail.smtp.ssl.enable", String.valueOf(ssl));
+        props.setProperty("mail.smtp.starttls.enable", String.valueOf("true".equals(smtp.get("starttls"))));
+        props.setProperty("mail.smtp.auth", String.valueOf("true".equals(smtp.get("auth"))));
+        props.setProperty("mail.smtp.connectiontimeout", SMTP_TIMEOUT_MILLIS);
+        props.setProperty("mail.smtp.timeout", SMTP_TIMEOUT_MILLIS);
+
+        long start = System.currentTimeMillis();
+        try {
+            Transport transport = Session.getInstance(props).getTransport("smtp");
+            try {
+                if ("true".equals(smtp.get("auth"))) {
+                    transport.connect(smtp.get("user"), smtp.get("password"));
+                } else {
+                    transport.connect();
+                }
+            } finally {
+                transport.close();
+            }
+            return new ProbeResult(null, "email", STATUS_UP, System.currentTimeMillis() - start, null);
+        } catch (Exception e) {
+            logger.warn("Health probe of SMTP server " + host + " failed: " + e.getMessage());
+            return new ProbeResult(null, "email", STATUS_DOWN, System.currentTimeMillis() - start, e.getMessage());
+        }
+    }
+
+    /**
+     * Copy the realm's SMTP settings, resolving a vault reference for the password
+     */
+    private static Map<String, String> resolveSmtpConfig(KeycloakSession session, RealmModel realm) {
+        Map<String, String> smtp = new HashMap<>();
+        if (realm.getSmtpConfig() != null) {
+            smtp.putAll(realm.getSmtpConfig());
+        }
+        String password = smtp.get("password");
+        if (password != null) {
+            smtp.put("password", session.vault().getStringSecret(password).get().orElse(password));
+        }
+        return smtp;
+    }
+
+    /**
+     * Result of the latest probe of one channel
+     */
+    public static class ProbeResult {
+        private final String configAlias;
+        private final String channel;
+        private final String status;
+        private final long latencyMillis;
+        private final long checkedAt;
+        private final String error;
+
+        ProbeResult(String configAlias, String channel, String status, long latencyMillis, String error) {
+            this.configAlias = configAlias;
+            this.channel = channel;
+            this.status = status;
+            this.latencyMillis = latencyMillis;
+            this.checkedAt = System.currentTimeMillis();
+            this.error = error;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the result as a map for JSON output
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            if (configAlias != null) {
+                map.put("config", configAlias);
+            }
+            map.put("channel", channel);
+            map.put("status", status);
+            if (latencyMillis >= 0) {
+                map.put("latencyMs", latencyMillis);
+            }
+            map.put("checkedAt", checkedAt);
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
@@ -20,20 +20,24 @@ public class EmailServiceAdapter implements ExternalServiceAdapter {
     private static final Logger logger = Logger.getLogger(EmailServiceAdapter.class);
     
     private final MFAConfig config;
-    private static EmailServiceAdapter instance;
     
     private EmailServiceAdapter(MFAConfig config) {
         this.config = config;
     }
     
     /**
-     * Get singleton instance
+     * Get an adapter for the config
+     * Each call returns its own instance, the first realm's config must not leak into others
      */
-    public static synchronized EmailServiceAdapter getInstance(MFAConfig config) {
-        if (instance == null) {
-            instance = new EmailServiceAdapter(config);
-        }
-        return instance;
+    public static EmailServiceAdapter getInstance(MFAConfig config) {
+        return new EmailServiceAdapter(config);
+    }
+    
+    /**
+     * Get the configuration this adapter was created with
+     */
+    public MFAConfig getConfig() {
+        return config;
     }
     
     @Override
@@ -69,9 +73,7 @@ public class EmailServiceAdapter implements ExternalServiceAdapter {
         Map<String, Object> attributes = contentBuilder.build();
         
         // Use Keycloak's email provider
-        List<Object> subjectParams = List.of(
-            context.getAuthenticatorConfig().getConfig().getOrDefault("otpEmailSubject", "Your authentication code")
-        );
+        List<Object> subjectParams = List.of(config.getOtpEmailSubject());
         
         EmailTemplateProvider emailProvider = context.getSession().getProvider(EmailTemplateProvider.class);
         if (emailProvider == null) {
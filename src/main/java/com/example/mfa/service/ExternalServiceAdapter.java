@@ -19,4 +19,21 @@ public interface ExternalServiceAdapter {
      * Verify a code for a recipient (if applicable)
      */
     boolean verifyCode(String recipient, String code);
+    
+    /**
+     * Open connections and load classes ahead of the first real request
+     * Must not send any message
+     */
+    default void warmUp() throws Exception {
+        // Nothing to warm up by default
+    }
+    
+    /**
+     * Check that the service is reachable and accepts the configured credentials
+     * Called by the background health probes, must be cheap, must not send any message
+     * and must bypass the adaptive limiters that protect login traffic
+     */
+    default void checkHealth() throws Exception {
+        warmUp();
+    }
 }
\ No newline at end of file
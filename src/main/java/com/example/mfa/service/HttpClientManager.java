@@ -0,0 +1,45 @@
+package com.example.mfa.service;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Singleton Pattern: Shared HTTP client for all service adapters
+ * Adapters are recreated per request, sharing one client keeps pooled
+ * connections and completed TLS handshakes alive between logins
+ */
+public class HttpClientManager {
+
+    private static HttpClientManager instance;
+    private final HttpClient httpClient;
+
+    private HttpClientManager() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .version(HttpClient.Version.HTTP_2);
+        // Response handling and async callbacks run on virtual threads when available
+        Executor executor = BlockingIoExecutor.getInstance().getHttpClientExecutor();
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.httpClient = builder.build();
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized HttpClientManager getInstance() {
+        if (instance == null) {
+            instance = new HttpClientManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the shared HTTP client
+     */
+    public HttpClient getClient() {
+        return httpClient;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+import com.example.mfa.config.MFAConfig;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Adapter Pattern: Generic SMS gateway posting messages to a JSON HTTP endpoint
+ * The code is generated and verified locally, the gateway only delivers the text
+ */
+public class HttpSmsGateway implements SmsGateway {
+    private static final Logger logger = Logger.getLogger(HttpSmsGateway.class);
+    public static final String ID = "http";
+    private static final String MESSAGE_FORMAT = "Your verification code is: %s";
+
+    private final String url;
+    private final String token;
+
+    public HttpSmsGateway(MFAConfig config) {
+        this.url = config.getSmsHttpGatewayUrl();
+        this.token = config.getSmsHttpGatewayToken();
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return url != null && !url.isEmpty();
+    }
+
+    @Override
+    public boolean isMessagingConfigured() {
+        return isConfigured();
+    }
+
+    @Override
+    public void sendVerificationCode(String phoneNumber, String code) throws Exception {
+        sendMessage(phoneNumber, String.format(MESSAGE_FORMAT, code));
+    }
+
+    @Override
+    public void sendMessage(String phoneNumber, String body) throws Exception {
+        if (!isConfigured()) {
+            logger.info("Development Mode - Would send SMS via HTTP gateway to: " + phoneNumber + " with body: " + body);
+            return;
+        }
+
+        String jsonBody = String.format("{\"to\": \"%s\", \"message\": \"%s\"}",
+            escapeJson(phoneNumber), escapeJson(body));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .timeout(Duration.ofSeconds(10))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(jsonBody));
+        if (token != null && !token.isEmpty()) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+
+        HttpResponse<String> response = HttpClientManager.getInstance().getClient().send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            logger.error("Failed to send SMS via HTTP gateway. Status: " + response.statusCode());
+            throw new RuntimeException("Failed to send SMS via HTTP gateway");
+        }
+
+        logger.info("SMS sent via HTTP gateway to " + phoneNumber);
+    }
+
+    @Override
+    public boolean verifyCode(String phoneNumber, String code) {
+        // Codes are verified locally by the SMS provider
+        return true;
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Singleton Pattern: Shares the outbound message slots of this node between realms
+ * A send takes a slot before calling a service adapter. When all slots are busy, waiting
+ * sends are served by priority class first and then by weighted fair queuing per realm,
+ * so one realm's login storm or bulk enrollment cannot starve the others
+ */
+public class OutboundScheduler {
+    private static final Logger logger = Logger.getLogger(OutboundScheduler.class);
+
+    /**
+     * Priority classes, served in declaration order
+     */
+    public enum Priority {
+        LOGIN,
+        ENROLLMENT,
+        NOTIFICATION
+    }
+
+    public static final int DEFAULT_CAPACITY = 64;
+    // Longest time a send waits for a slot before it fails
+    private static final long MAX_WAIT_MILLIS = 5000L;
+
+    private static OutboundScheduler instance;
+
+    private final Map<String, RealmState> realms = new HashMap<>();
+    private final List<Waiter> waiting = new ArrayList<>();
+    private int capacity;
+    private int inUse;
+    private long sequence;
+    // Finish tag of the last dispatched send, new senders start from here
+    private double virtualTime;
+
+    public OutboundScheduler(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized OutboundScheduler getInstance() {
+        if (instance == null) {
+            instance = new OutboundScheduler(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Change the number of concurrent sends of this node
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        dispatch();
+    }
+
+    /**
+     * Wait for a slot, weight and cap (0 for none) apply to the whole realm
+     */
+    public synchronized Permit acquire(String realmId, Priority priority, int weight, int maxConcurrent)
+            throws QueueTimeoutException {
+        RealmState realm = realms.computeIfAbsent(realmId, id -> new RealmState());
+        realm.weight = Math.max(1, weight);
+        realm.maxConcurrent = Math.max(0, maxConcurrent);
+        // A realm's sends are spaced 1/weight apart in virtual time, idle realms bank no credit
+        realm.lastTag = Math.max(virtualTime, realm.lastTag) + 1.0 / realm.weight;
+
+        Waiter waiter = new Waiter(realm, priority, realm.lastTag, sequence++);
+        waiting.add(waiter);
+        realm.queued++;
+        dispatch();
+
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        try {
+            while (!waiter.granted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    abandon(realmId, waiter);
+                    logger.warn("No outbound slot for realm " + realmId + " within " + MAX_WAIT_MILLIS + " ms");
+                    throw new QueueTimeoutException("No outbound slot within " + MAX_WAIT_MILLIS + " ms");
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.granted) {
+                release(realmId, realm);
+            } else {
+                abandon(realmId, waiter);
+            }
+            throw new QueueTimeoutException("Interrupted while waiting for an outbound slot");
+        }
+        return new Permit(realmId, realm);
+    }
+
+    /**
+     * Get the number of sends waiting for a slot
+     */
+    public synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    /**
+     * Get the number of slots in use
+     */
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Hand free slots to the best eligible waiters
+     */
+    private void dispatch() {
+        boolean granted = false;
+        while (inUse < capacity) {
+            Waiter next = null;
+            for (Waiter candidate : waiting) {
+                RealmState realm = candidate.realm;
+                if (realm.maxConcurrent > 0 && realm.active >= realm.maxConcurrent) {
+                    continue;
+                }
+                if (next == null || candidate.isBefore(next)) {
+                    next = candidate;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            waiting.remove(next);
+            next.realm.queued--;
+            next.realm.active++;
+            next.granted = true;
+            inUse++;
+            virtualTime = Math.max(virtualTime, next.tag);
+            granted = true;
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void release(String realmId, RealmState realm) {
+        realm.active--;
+        inUse--;
+        dispatch();
+        removeIfIdle(realmId, realm);
+    }
+
+    private void abandon(String realmId, Waiter waiter) {
+        waiting.remove(waiter);
+        waiter.realm.queued--;
+        removeIfIdle(realmId, waiter.realm);
+    }
+
+    private void removeIfIdle(String realmId, RealmState realm) {
+        if (realm.active == 0 && realm.queued == 0) {
+            realms.remove(realmId, realm);
+        }
+    }
+
+    /**
+     * Scheduling state of one realm, guarded by the scheduler
+     */
+    private static final class RealmState {
+        int weight = 1;
+        int maxConcurrent;
+        int active;
+        int queued;
+        double lastTag;
+    }
+
+    private static final class Waiter {
+        final RealmState realm;
+        final Priority priority;
+        final double tag;
+        final long sequence;
+        boolean granted;
+
+        Waiter(RealmState realm, Priority priority, double tag, long sequence) {
+            this.realm = realm;
+            this.priority = priority;
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        boolean isBefore(Waiter other) {
+            if (priority != other.priority) {
+                return priority.ordinal() < other.priority.ordinal();
+            }
+            if (tag != other.tag) {
+                return tag < other.tag;
+            }
+            return sequence < other.sequence;
+        }
+    }
+
+    /**
+     * A held outbound slot, closing it hands the slot to the next waiter
+     */
+    public final class Permit implements AutoCloseable {
+        private final String realmId;
+        private final RealmState realm;
+        private boolean released;
+
+        private Permit(String realmId, RealmState realm) {
+            this.realmId = realmId;
+            this.realm = realm;
+        }
+
+        @Override
+        public void close() {
+            synchronized (OutboundScheduler.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                release(realmId, realm);
+            }
+        }
+    }
+
+    /**
+     * Thrown when no slot became free within the wait budget
+     */
+    public static class QueueTimeoutException extends Exception {
+        public QueueTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.mfa.service;
+
+/**
+ * Adapter Pattern: SMS gateway that generates and checks codes itself (remote verification)
+ * The code passed to {@link #sendVerificationCode(String, String)} is ignored, the gateway sends its own
+ */
+public interface RemoteVerifyingGateway extends SmsGateway {
+
+    /**
+     * Check a code with the gateway and return its verification status
+     * Returns null if the check could not be performed
+     */
+    String checkVerification(String phoneNumber, String code);
+}
@@ -0,0 +1,139 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.config.MFAConfigLocator;
+import com.example.mfa.factory.MFAProviderFactory;
+import com.example.mfa.util.LatencyWindow;
+import com.example.mfa.util.OTPGenerator;
+import com.example.mfa.util.ValidationUtil;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up adapters, pooled connections and hot code paths before the first login
+ * Runs synchronously after model migration so the server only reports
+ * readiness once the warm-up finished or its time budget was spent
+ */
+public class ServiceWarmup {
+    private static final Logger logger = Logger.getLogger(ServiceWarmup.class);
+
+    private static final int CODE_PATH_ITERATIONS = 10000;
+    private static final int WARMUP_THREADS = 4;
+    private static final String[] PROVIDER_TYPES = {"sms", "telegram", "email", "totp"};
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String authenticatorId;
+
+    public ServiceWarmup(KeycloakSessionFactory sessionFactory, String authenticatorId) {
+        this.sessionFactory = sessionFactory;
+        this.authenticatorId = authenticatorId;
+    }
+
+    /**
+     * Run the warm-up, waiting at most the given number of seconds
+     */
+    public void run(int timeoutSeconds) {
+        long start = System.currentTimeMillis();
+        List<AuthenticatorConfigModel> configModels = new ArrayList<>();
+        Set<String> smtpHosts = new LinkedHashSet<>();
+
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+            session.realms().getRealmsStream().forEach(realm -> {
+                configModels.addAll(MFAConfigLocator.findConfigModels(realm, authenticatorId));
+                String smtpHost = realm.getSmtpConfig() != null ? realm.getSmtpConfig().get("host") : null;
+                if (smtpHost != null && !smtpHost.isEmpty()) {
+                    smtpHosts.add(smtpHost);
+                }
+            }));
+
+        logger.info("Starting MFA warm-up for " + configModels.size() + " authenticator configs");
+
+        ExecutorService executor = Executors.newFixedThreadPool(WARMUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "mfa-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            executor.submit(this::exerciseCodePaths);
+            for (AuthenticatorConfigModel configModel : configModels) {
+                executor.submit(() -> warmUpConfig(configModel));
+            }
+            for (String smtpHost : smtpHosts) {
+                executor.submit(() -> resolveHost(smtpHost));
+            }
+
+            executor.shutdown();
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                logger.warn("MFA warm-up did not finish within " + timeoutSeconds + " seconds, continuing startup");
+                executor.shutdownNow();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            return;
+        }
+
+        logger.info("MFA warm-up finished in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Build providers and adapters for a config and open their upstream connections
+     */
+    private void warmUpConfig(AuthenticatorConfigModel configModel) {
+        MFAConfig config = new MFAConfig(configModel);
+        MFAProviderFactory providerFactory = MFAProviderFactory.getInstance();
+        for (String type : PROVIDER_TYPES) {
+            providerFactory.createProvider(type, configModel);
+        }
+
+        List<ExternalServiceAdapter> adapters = new ArrayList<>(SmsGatewayRegistry.getInstance().createGateways(config));
+        adapters.add(TelegramServiceAdapter.getInstance(config));
+        for (ExternalServiceAdapter adapter : adapters) {
+            try {
+                adapter.warmUp();
+            } catch (Exception e) {
+                logger.warn("Warm-up failed for " + adapter.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run the OTP and validation code paths enough times to get them compiled
+     */
+    private void exerciseCodePaths() {
+        OTPGenerator otpGenerator = OTPGenerator.getInstance();
+        LatencyWindow window = new LatencyWindow();
+        int valid = 0;
+        for (int i = 0; i < CODE_PATH_ITERATIONS; i++) {
+            String otp = otpGenerator.generateOTP();
+            if (ValidationUtil.isValidVerificationCode(otp, 6)
+                    && ValidationUtil.isValidPhoneNumber("+1555000" + otp.substring(0, 4))
+                    && ValidationUtil.isValidTelegramId(otp)) {
+                valid++;
+            }
+            window.record(i % 100, true);
+        }
+        window.percentile(95);
+        logger.debug("Exercised OTP and validation code paths (" + valid + " iterations)");
+    }
+
+    private void resolveHost(String host) {
+        try {
+            InetAddress.getAllByName(host);
+        } catch (Exception e) {
+            logger.warn("Could not resolve SMTP host " + host + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.mfa.service;
+
+/**
+ * Adapter Pattern: Interface for pluggable SMS gateways
+ * Gateways deliver our own code as a plain text message that is verified locally,
+ * gateways that also generate and check codes themselves implement {@link RemoteVerifyingGateway}
+ */
+public interface SmsGateway extends ExternalServiceAdapter {
+
+    /**
+     * Get the identifier used in routing configuration
+     */
+    String getId();
+
+    /**
+     * Check if the gateway can deliver plain text messages
+     */
+    boolean isMessagingConfigured();
+
+    /**
+     * Send a plain text message
+     */
+    void sendMessage(String phoneNumber, String body) throws Exception;
+}
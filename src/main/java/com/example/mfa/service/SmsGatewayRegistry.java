@@ -0,0 +1,73 @@
+package com.example.mfa.service;
+
+import org.jboss.logging.Logger;
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.util.LatencyWindow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Registry of SMS gateway implementations and their recent call statistics
+ * Singleton Pattern: Statistics survive the per-request creation of gateways
+ * Additional gateways can be plugged in with {@link #register(String, Function)}
+ */
+public class SmsGatewayRegistry {
+    private static final Logger logger = Logger.getLogger(SmsGatewayRegistry.class);
+    private static SmsGatewayRegistry instance;
+
+    private final Map<String, Function<MFAConfig, SmsGateway>> factories = new ConcurrentHashMap<>();
+    private final Map<String, LatencyWindow> stats = new ConcurrentHashMap<>();
+
+    private SmsGatewayRegistry() {
+        register(TwilioServiceAdapter.ID, TwilioServiceAdapter::getInstance);
+        register(HttpSmsGateway.ID, HttpSmsGateway::new);
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized SmsGatewayRegistry getInstance() {
+        if (instance == null) {
+            instance = new SmsGatewayRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Register a gateway implementation under an identifier
+     */
+    public void register(String id, Function<MFAConfig, SmsGateway> factory) {
+        if (id != null && factory != null) {
+            factories.put(id, factory);
+            logger.debug("Registered SMS gateway: " + id);
+        }
+    }
+
+    /**
+     * Create the gateways listed in the configuration, in configured order
+     */
+    public List<SmsGateway> createGateways(MFAConfig config) {
+        List<SmsGateway> gateways = new ArrayList<>();
+        for (String id : config.getSmsGateways()) {
+            Function<MFAConfig, SmsGateway> factory = factories.get(id);
+            if (factory == null) {
+                logger.warn("Unknown SMS gateway configured: " + id);
+                continue;
+            }
+            gateways.add(factory.apply(config));
+        }
+        return gateways;
+    }
+
+    /**
+     * Get the recent call statistics for a gateway in a realm
+     * Realms configure their own credentials, so one realm's account problems don't move another's traffic
+     */
+    public LatencyWindow getStats(String realmId, String id) {
+        return stats.computeIfAbsent(realmId + ":" + id, k -> new LatencyWindow());
+    }
+}
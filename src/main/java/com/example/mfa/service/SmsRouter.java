@@ -0,0 +1,147 @@
+package com.example.mfa.service;
+
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.util.LatencyWindow;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Strategy Pattern: Orders SMS gateways for a destination according to the routing policy
+ * The first gateway is the primary, the remaining ones are used in order for failover
+ */
+public class SmsRouter {
+
+    public static final String POLICY_PRIORITY = "priority";
+    public static final String POLICY_WEIGHTED = "weighted";
+    public static final String POLICY_LATENCY = "latency";
+
+    // Gateways failing more often than this are moved behind healthy ones
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final int MIN_SAMPLES_FOR_HEALTH = 10;
+    // Weight of the recent error rate in the latency score
+    private static final double ERROR_PENALTY = 10.0;
+
+    private final MFAConfig config;
+    private final SmsGatewayRegistry registry;
+
+    public SmsRouter(MFAConfig config, SmsGatewayRegistry registry) {
+        this.config = config;
+        this.registry = registry;
+    }
+
+    /**
+     * Order the candidate gateways for a phone number in a realm
+     */
+    public List<SmsGateway> route(String realmId, String phoneNumber, List<SmsGateway> candidates) {
+        List<SmsGateway> ordered = new ArrayList<>(candidates);
+        if (ordered.size() <= 1) {
+            return ordered;
+        }
+
+        switch (config.getSmsRoutingPolicy()) {
+            case POLICY_WEIGHTED:
+                orderByWeight(ordered);
+                break;
+            case POLICY_LATENCY:
+                ordered.sort(Comparator.comparingDouble(gateway -> latencyScore(realmId, gateway.getId())));
+                break;
+            default:
+                // Priority: keep configured order
+                break;
+        }
+
+        // Healthy gateways first, relative order preserved (stable sort)
+        ordered.sort(Comparator.comparing(gateway -> isUnhealthy(realmId, gateway.getId())));
+
+        // An explicit country route always becomes the primary
+        String routed = findCountryRoute(phoneNumber);
+        if (routed != null) {
+            for (int i = 0; i < ordered.size(); i++) {
+                if (ordered.get(i).getId().equals(routed)) {
+                    ordered.add(0, ordered.remove(i));
+                    break;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Record the outcome of a gateway call for future routing decisions
+     */
+    public void recordOutcome(String realmId, String gatewayId, long latencyMillis, boolean success) {
+        registry.getStats(realmId, gatewayId).record(latencyMillis, success);
+    }
+
+    private void orderByWeight(List<SmsGateway> gateways) {
+        Map<String, String> weights = config.getSmsGatewayWeights();
+        int total = 0;
+        for (SmsGateway gateway : gateways) {
+            total += weightOf(weights, gateway.getId());
+        }
+        if (total <= 0) {
+            return;
+        }
+
+        // Weighted random primary, the rest by descending weight for failover
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        SmsGateway primary = gateways.get(0);
+        for (SmsGateway gateway : gateways) {
+            pick -= weightOf(weights, gateway.getId());
+            if (pick < 0) {
+                primary = gateway;
+                break;
+            }
+        }
+        gateways.remove(primary);
+        gateways.sort(Comparator.comparingInt((SmsGateway gateway) -> weightOf(weights, gateway.getId())).reversed());
+        gateways.add(0, primary);
+    }
+
+    private int weightOf(Map<String, String> weights, String gatewayId) {
+        String weight = weights.get(gatewayId);
+        if (weight == null) {
+            return 1;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(weight.trim()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private double latencyScore(String realmId, String gatewayId) {
+        LatencyWindow stats = registry.getStats(realmId, gatewayId);
+        long p95 = stats.percentile(95);
+        if (p95 < 0) {
+            // No successful samples yet - try it so it gets measured
+            return stats.sampleCount() == 0 ? 0.0 : Double.MAX_VALUE;
+        }
+        return p95 * (1.0 + ERROR_PENALTY * stats.errorRate());
+    }
+
+    private boolean isUnhealthy(String realmId, String gatewayId) {
+        LatencyWindow stats = registry.getStats(realmId, gatewayId);
+        return stats.sampleCount() >= MIN_SAMPLES_FOR_HEALTH && stats.errorRate() > UNHEALTHY_ERROR_RATE;
+    }
+
+    private String findCountryRoute(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        String bestPrefix = null;
+        String bestGateway = null;
+        for (Map.Entry<String, String> route : config.getSmsCountryRoutes().entrySet()) {
+            String prefix = route.getKey();
+            if (phoneNumber.startsWith(prefix) && (bestPrefix == null || prefix.length() > bestPrefix.length())) {
+                bestPrefix = prefix;
+                bestGateway = route.getValue();
+            }
+        }
+        return bestGateway;
+    }
+}
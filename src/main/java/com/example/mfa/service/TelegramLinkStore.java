@@ -0,0 +1,119 @@
+package com.example.mfa.service;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One-time Telegram deep-link tokens that bind a chat to a pending authentication session
+ * Tokens are keys in Keycloak's single-use object store, so the webhook finds the waiting
+ * session with a single cluster-wide lookup on whichever node Telegram reaches
+ */
+public class TelegramLinkStore {
+
+    // Lifetime of an unused link, long enough to install Telegram and open the bot
+    public static final int LINK_LIFESPAN_SECONDS = 600;
+
+    private static final String KEY_PREFIX = "mfa-tg-link:";
+    // Claimed by the first bind of a token, a get-then-put alone lets concurrent binds both win
+    private static final String BOUND_SUFFIX = ":bound";
+    private static final String REALM = "realm";
+    private static final String USER = "user";
+    private static final String AUTH_SESSION = "authSession";
+    private static final String CHAT_ID = "chatId";
+    private static final String EXPIRES_AT = "expiresAt";
+    // 24 random bytes, 32 characters within Telegram's [A-Za-z0-9_-]{1,64} start parameter
+    private static final int TOKEN_BYTES = 24;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private TelegramLinkStore() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Issue a link token for the user's pending authentication session
+     */
+    public static String issue(KeycloakSession session, RealmModel realm, UserModel user,
+                               AuthenticationSessionModel authSession) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        Map<String, String> link = new HashMap<>();
+        link.put(REALM, realm.getId());
+        link.put(USER, user.getId());
+        link.put(AUTH_SESSION, authSessionKey(authSession));
+        link.put(EXPIRES_AT, String.valueOf(System.currentTimeMillis() / 1000L + LINK_LIFESPAN_SECONDS));
+        session.singleUseObjects().put(KEY_PREFIX + token, LINK_LIFESPAN_SECONDS, link);
+        return token;
+    }
+
+    /**
+     * Check if a token still waits for its chat
+     */
+    public static boolean isPending(KeycloakSession session, String token) {
+        Map<String, String> link = session.singleUseObjects().get(KEY_PREFIX + token);
+        return link != null && !link.containsKey(CHAT_ID);
+    }
+
+    /**
+     * Bind a chat to the token of a realm, false if the token is unknown, expired or already bound
+     */
+    public static boolean bind(KeycloakSession session, RealmModel realm, String token, String chatId) {
+        SingleUseObjectProvider store = session.singleUseObjects();
+        Map<String, String> link = store.get(KEY_PREFIX + token);
+        if (link == null || link.containsKey(CHAT_ID) || !realm.getId().equals(link.get(REALM))) {
+            return false;
+        }
+        long remaining;
+        try {
+            remaining = Long.parseLong(link.get(EXPIRES_AT)) - System.currentTimeMillis() / 1000L;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (remaining <= 0) {
+            return false;
+        }
+
+        if (!store.putIfAbsent(KEY_PREFIX + token + BOUND_SUFFIX, remaining)) {
+            return false;
+        }
+        // Re-put with the remaining lifespan, a plain replace would not keep the expiry
+        Map<String, String> bound = new HashMap<>(link);
+        bound.put(CHAT_ID, chatId);
+        store.put(KEY_PREFIX + token, remaining, bound);
+        return true;
+    }
+
+    /**
+     * Get the chat bound to the token by the session that issued it, null while none is bound
+     */
+    public static String getChatId(KeycloakSession session, UserModel user, AuthenticationSessionModel authSession,
+                                   String token) {
+        Map<String, String> link = session.singleUseObjects().get(KEY_PREFIX + token);
+        if (link == null || !user.getId().equals(link.get(USER))
+                || !authSessionKey(authSession).equals(link.get(AUTH_SESSION))) {
+            return null;
+        }
+        return link.get(CHAT_ID);
+    }
+
+    /**
+     * Remove a token once its chat was saved
+     */
+    public static void consume(KeycloakSession session, String token) {
+        session.singleUseObjects().remove(KEY_PREFIX + token);
+        session.singleUseObjects().remove(KEY_PREFIX + token + BOUND_SUFFIX);
+    }
+
+    private static String authSessionKey(AuthenticationSessionModel authSession) {
+        return authSession.getParentSession().getId() + "." + authSession.getTabId();
+    }
+}
@@ -2,11 +2,15 @@ package com.example.mfa.service;
 
 import org.jboss.logging.Logger;
 import com.example.mfa.config.MFAConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.keycloak.util.JsonSerialization;
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -15,23 +19,27 @@ import java.util.Map;
  */
 public class TelegramServiceAdapter implements ExternalServiceAdapter {
     private static final Logger logger = Logger.getLogger(TelegramServiceAdapter.class);
-    private static final String TELEGRAM_API_URL = "https://api.telegram.org/bot%s/sendMessage";
+    private static final String TELEGRAM_BASE_URL = "https://api.telegram.org";
+    private static final String TELEGRAM_API_URL = "%s/bot%s/sendMessage";
+    private static final String TELEGRAM_GET_ME_URL = "%s/bot%s/getMe";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
     
     // Key constant - must match exactly what's in the config
     private static final String KEY_BOT_TOKEN = "telegramBotToken";
     
     private final String botToken;
+    private final String baseUrl;
     private final HttpClient httpClient;
-    private static TelegramServiceAdapter instance;
     
     private TelegramServiceAdapter(MFAConfig config) {
         // Get the raw configuration map for direct access
         Map<String, String> rawConfig = config.getAllConfig();
         
         this.botToken = rawConfig.get(KEY_BOT_TOKEN);
-        this.httpClient = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(10))
-            .build();
+        String customBaseUrl = rawConfig.get(MFAConfig.TELEGRAM_BASE_URL);
+        this.baseUrl = customBaseUrl != null && !customBaseUrl.trim().isEmpty()
+            ? customBaseUrl.trim().replaceAll("/+$", "") : TELEGRAM_BASE_URL;
+        this.httpClient = HttpClientManager.getInstance().getClient();
             
         // Log configuration
         logger.info("Telegram Bot Token: " + (botToken != null && !botToken.isEmpty() ? 
@@ -40,12 +48,12 @@ public class TelegramServiceAdapter implements ExternalServiceAdapter {
     }
     
     /**
-     * Get singleton instance - reset instance to ensure fresh config
+     * Get an adapter for the config
+     * Each call returns its own instance, so concurrent logins of different realms never
+     * share configuration and callers don't contend on a lock
      */
-    public static synchronized TelegramServiceAdapter getInstance(MFAConfig config) {
-        // Always create a new instance to ensure we have the latest config
-        instance = new TelegramServiceAdapter(config);
-        return instance;
+    public static TelegramServiceAdapter getInstance(MFAConfig config) {
+        return new TelegramServiceAdapter(config);
     }
     
     @Override
@@ -53,6 +61,38 @@ public class TelegramServiceAdapter implements ExternalServiceAdapter {
         return botToken != null && !botToken.isEmpty();
     }
     
+    @Override
+    public void warmUp() throws Exception {
+        if (!isConfigured()) {
+            return;
+        }
+        
+        HttpResponse<String> response = sendLimited(getMeRequest());
+        logger.info("Telegram warm-up completed with status " + response.statusCode());
+    }
+    
+    /**
+     * Sent outside the adaptive limiter, probes must neither take login slots nor feed its latency baseline
+     */
+    @Override
+    public void checkHealth() throws Exception {
+        HttpResponse<String> response = httpClient.send(getMeRequest(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Telegram getMe returned HTTP " + response.statusCode());
+        }
+    }
+    
+    /**
+     * getMe is authenticated but sends nothing, it resolves DNS and opens a pooled TLS connection
+     */
+    private HttpRequest getMeRequest() {
+        return HttpRequest.newBuilder()
+            .uri(URI.create(String.format(TELEGRAM_GET_ME_URL, baseUrl, botToken)))
+            .timeout(Duration.ofSeconds(10))
+            .GET()
+            .build();
+    }
+    
     @Override
     public void sendVerificationCode(String chatId, String code) throws Exception {
         if (!isConfigured()) {
@@ -60,14 +100,26 @@ public class TelegramServiceAdapter implements ExternalServiceAdapter {
             return;
         }
         
+        sendMessage(chatId, String.format("Your verification code is: %s", code));
+        logger.info("Telegram OTP sent successfully to " + chatId);
+    }
+    
+    /**
+     * Send a plain text message to a chat
+     */
+    public void sendMessage(String chatId, String text) {
+        if (!isConfigured()) {
+            logger.info("Development Mode - Telegram message for " + chatId + ": " + text);
+            return;
+        }
+        
         try {
-            String message = String.format("Your verification code is: %s", code);
-            String url = String.format(TELEGRAM_API_URL, botToken);
+            String url = String.format(TELEGRAM_API_URL, baseUrl, botToken);
             
-            String jsonBody = String.format(
-                "{\"chat_id\": \"%s\", \"text\": \"%s\", \"parse_mode\": \"HTML\"}",
-                chatId, message
-            );
+            Map<String, String> body = new LinkedHashMap<>();
+            body.put("chat_id", chatId);
+            body.put("text", text);
+            String jsonBody = JsonSerialization.writeValueAsString(body);
             
             HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
@@ -75,21 +127,74 @@ public class TelegramServiceAdapter implements ExternalServiceAdapter {
                 .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                 .build();
             
-            HttpResponse<String> response = httpClient.send(request, 
-                HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = sendLimited(request);
             
             if (response.statusCode() != 200) {
                 logger.error("Failed to send Telegram message. Status: " + response.statusCode());
                 throw new RuntimeException("Failed to send Telegram message");
             }
-            
-            logger.info("Telegram OTP sent successfully to " + chatId);
         } catch (Exception e) {
             logger.error("Error sending Telegram message", e);
             throw new RuntimeException("Failed to send Telegram message", e);
         }
     }
     
+    /**
+     * Send through the adaptive limiter of the host and bot
+     * A 429 is retried once when its retry_after fits into the limiter's wait budget
+     */
+    private HttpResponse<String> sendLimited(HttpRequest request) throws Exception {
+        AdaptiveLimiter limiter = UpstreamLimiterRegistry.getInstance().get(request.uri().getAuthority(), getBotId());
+        for (int attempt = 0; ; attempt++) {
+            limiter.acquire();
+            long start = System.currentTimeMillis();
+            HttpResponse<String> response = null;
+            try {
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            } finally {
+                limiter.release(
+                    response != null ? AdaptiveLimiter.classify(response.statusCode()) : AdaptiveLimiter.Outcome.OVERLOADED,
+                    System.currentTimeMillis() - start,
+                    response != null ? getRetryAfterMillis(response) : -1L);
+            }
+            
+            if (response.statusCode() != HTTP_TOO_MANY_REQUESTS || attempt > 0) {
+                return response;
+            }
+            long retryAfter = getRetryAfterMillis(response);
+            long delay = retryAfter >= 0 ? retryAfter : AdaptiveLimiter.DEFAULT_RETRY_AFTER_MILLIS;
+            if (!limiter.canWait(delay)) {
+                return response;
+            }
+            logger.info("Telegram throttled, retrying in " + delay + " ms");
+            Thread.sleep(delay);
+        }
+    }
+    
+    /**
+     * Get the retry delay of a 429 from the Retry-After header or Telegram's parameters.retry_after
+     */
+    private static long getRetryAfterMillis(HttpResponse<String> response) {
+        long header = AdaptiveLimiter.parseRetryAfterMillis(response.headers().firstValue("Retry-After").orElse(null));
+        if (header >= 0 || response.statusCode() != HTTP_TOO_MANY_REQUESTS) {
+            return header;
+        }
+        try {
+            JsonNode retryAfter = JsonSerialization.mapper.readTree(response.body()).path("parameters").path("retry_after");
+            return retryAfter.isNumber() ? retryAfter.asLong() * 1000L : -1L;
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+    
+    /**
+     * The numeric bot id in front of the token, identifies the bot without the secret part
+     */
+    private String getBotId() {
+        int separator = botToken.indexOf(':');
+        return separator > 0 ? botToken.substring(0, separator) : "bot";
+    }
+    
     @Override
     public boolean verifyCode(String chatId, String code) {
         // Telegram doesn't have a built-in verification API, so we rely on manually comparing codes
@@ -2,27 +2,38 @@ package com.example.mfa.service;
 
 import org.jboss.logging.Logger;
 import com.example.mfa.config.MFAConfig;
-import com.twilio.Twilio;
-import com.twilio.rest.verify.v2.service.Verification;
-import com.twilio.rest.verify.v2.service.VerificationCheck;
+import com.example.mfa.service.TwilioVerifyClient.TwilioApiException;
 import java.util.Map;
 
 /**
  * Adapter Pattern: Implementation for Twilio service
  * Singleton Pattern: Only one instance per config
  */
-public class TwilioServiceAdapter implements ExternalServiceAdapter {
+public class TwilioServiceAdapter implements RemoteVerifyingGateway {
     private static final Logger logger = Logger.getLogger(TwilioServiceAdapter.class);
+    public static final String ID = "twilio";
     
     // Key constants - must match exactly what's in the config
     private static final String KEY_ACCOUNT_SID = "twilioAccountSid";
     private static final String KEY_AUTH_TOKEN = "twilioAuthToken";
     private static final String KEY_SERVICE_SID = "twilioVerifyServiceSid";
+    private static final String KEY_FROM_NUMBER = "twilioFromNumber";
+    
+    // Messaging Service SIDs can be used in place of a sender number
+    private static final String MESSAGING_SERVICE_PREFIX = "MG";
+    
+    // Verification statuses returned by Twilio Verify
+    public static final String STATUS_APPROVED = "approved";
+    public static final String STATUS_PENDING = "pending";
+    // Returned when Twilio no longer knows the verification (expired, approved or max attempts)
+    public static final String STATUS_NOT_FOUND = "not_found";
+    private static final int HTTP_NOT_FOUND = 404;
     
     private final String verifyServiceSid;
     private final String accountSid;
     private final String authToken;
-    private static TwilioServiceAdapter instance;
+    private final String fromNumber;
+    private final TwilioVerifyClient client;
     
     private TwilioServiceAdapter(MFAConfig config) {
         // Get the raw configuration map for direct access
@@ -34,6 +45,7 @@ public class TwilioServiceAdapter implements ExternalServiceAdapter {
         this.accountSid = rawConfig.get(KEY_ACCOUNT_SID);
         this.authToken = rawConfig.get(KEY_AUTH_TOKEN);
         this.verifyServiceSid = rawConfig.get(KEY_SERVICE_SID);
+        this.fromNumber = rawConfig.get(KEY_FROM_NUMBER);
         
         // Enhanced debugging
         logger.info("Twilio Configuration - AccountSid: " + 
@@ -41,15 +53,10 @@ public class TwilioServiceAdapter implements ExternalServiceAdapter {
                    ", AuthToken: " + (authToken != null && !authToken.isEmpty() ? "[PRESENT]" : "null") + 
                    ", ServiceSid: " + (verifyServiceSid != null && !verifyServiceSid.isEmpty() ? verifyServiceSid.substring(0, Math.min(4, verifyServiceSid.length())) + "..." : "null"));
         
-        if (isConfigured()) {
-            logger.info("Twilio is configured, initializing client");
-            try {
-                Twilio.init(accountSid, authToken);
-                logger.info("Twilio client initialized successfully");
-            } catch (Exception e) {
-                logger.error("Failed to initialize Twilio client", e);
-            }
-        } else {
+        this.client = hasCredentials()
+            ? new TwilioVerifyClient(accountSid, authToken, rawConfig.get(MFAConfig.TWILIO_BASE_URL)) : null;
+        
+        if (!hasCredentials()) {
             logger.info("Twilio isConfigured(): false - running in development mode");
             // Detailed reason for configuration failure
             if (accountSid == null || accountSid.isEmpty()) {
@@ -65,12 +72,12 @@ public class TwilioServiceAdapter implements ExternalServiceAdapter {
     }
     
     /**
-     * Get singleton instance - reset instance to ensure fresh config
+     * Get an adapter for the config
+     * Each call returns its own instance, so concurrent logins of different realms never
+     * share configuration and callers don't contend on a lock
      */
-    public static synchronized TwilioServiceAdapter getInstance(MFAConfig config) {
-        // Always create a new instance to ensure we have the latest config
-        instance = new TwilioServiceAdapter(config);
-        return instance;
+    public static TwilioServiceAdapter getInstance(MFAConfig config) {
+        return new TwilioServiceAdapter(config);
     }
     
     @Override
@@ -88,6 +95,42 @@ public class TwilioServiceAdapter implements ExternalServiceAdapter {
         return configured;
     }
     
+    @Override
+    public String getId() {
+        return ID;
+    }
+    
+    /**
+     * Check if plain SMS messages can be sent (local verification mode)
+     */
+    @Override
+    public boolean isMessagingConfigured() {
+        return hasCredentials() && fromNumber != null && !fromNumber.isEmpty();
+    }
+    
+    private boolean hasCredentials() {
+        return accountSid != null && !accountSid.isEmpty()
+            && authToken != null && !authToken.isEmpty();
+    }
+    
+    @Override
+    public void warmUp() throws Exception {
+        if (!isConfigured()) {
+            return;
+        }
+        
+        // Fetching the Verify service opens the pooled connection without sending anything
+        String friendlyName = TwilioVerifyClient.await(client.fetchServiceAsync(verifyServiceSid));
+        logger.info("Twilio warm-up completed for Verify service " + friendlyName);
+    }
+    
+    @Override
+    public void checkHealth() throws Exception {
+        if (isConfigured()) {
+            TwilioVerifyClient.await(client.probeServiceAsync(verifyServiceSid));
+        }
+    }
+    
     @Override
     public void sendVerificationCode(String phoneNumber, String code) throws Exception {
         if (!isConfigured()) {
@@ -96,39 +139,69 @@ public class TwilioServiceAdapter implements ExternalServiceAdapter {
         }
         
         try {
-            Verification verification = Verification.creator(
-                verifyServiceSid,
-                phoneNumber,
-                "sms"
-            ).create();
+            String status = TwilioVerifyClient.await(
+                client.createVerificationAsync(verifyServiceSid, phoneNumber, "sms"));
             
-            logger.info("Sent verification to " + phoneNumber + ": " + verification.getStatus());
+            logger.info("Sent verification to " + phoneNumber + ": " + status);
         } catch (Exception e) {
             logger.error("Error sending verification", e);
             throw new RuntimeException("Failed to send verification code", e);
         }
     }
     
+    /**
+     * Send a plain SMS through the Twilio Messaging API
+     * Used when the code is generated and verified locally instead of by Twilio Verify
+     */
+    @Override
+    public void sendMessage(String phoneNumber, String body) throws Exception {
+        if (!isMessagingConfigured()) {
+            logger.info("Development Mode - Would send SMS to: " + phoneNumber + " with body: " + body);
+            return;
+        }
+        
+        try {
+            String status = TwilioVerifyClient.await(client.createMessageAsync(
+                phoneNumber, fromNumber, fromNumber.startsWith(MESSAGING_SERVICE_PREFIX), body));
+            
+            logger.info("Sent SMS to " + phoneNumber + ": " + status);
+        } catch (Exception e) {
+            logger.error("Error sending SMS", e);
+            throw new RuntimeException("Failed to send SMS", e);
+        }
+    }
+    
     @Override
     public boolean verifyCode(String phoneNumber, String code) {
+        return STATUS_APPROVED.equals(checkVerification(phoneNumber, code));
+    }
+    
+    /**
+     * Check a code against Twilio Verify and return the resulting verification status
+     * Returns null if the check could not be performed
+     */
+    @Override
+    public String checkVerification(String phoneNumber, String code) {
         if (!isConfigured()) {
             logger.info("Development Mode - Would verify code: " + code + " for " + phoneNumber);
-            return true; // Always succeed in development mode
+            return STATUS_APPROVED; // Always succeed in development mode
         }
         
         try {
-            VerificationCheck verificationCheck = VerificationCheck.creator(
-                verifyServiceSid
-            ).setTo(phoneNumber)
-             .setCode(code)
-             .create();
-            
-            boolean approved = "approved".equals(verificationCheck.getStatus());
-            logger.info("Verification result for " + phoneNumber + ": " + verificationCheck.getStatus() + " (approved: " + approved + ")");
-            return approved;
+            String status = TwilioVerifyClient.await(
+                client.createVerificationCheckAsync(verifyServiceSid, phoneNumber, code));
+            logger.info("Verification result for " + phoneNumber + ": " + status + " (approved: " + STATUS_APPROVED.equals(status) + ")");
+            return status;
+        } catch (TwilioApiException e) {
+            if (e.getStatusCode() == HTTP_NOT_FOUND) {
+                logger.info("No pending verification for " + phoneNumber);
+                return STATUS_NOT_FOUND;
+            }
+            logger.error("Error checking verification", e);
+            return null;
         } catch (Exception e) {
             logger.error("Error checking verification", e);
-            return false;
+            return null;
         }
     }
 }
\ No newline at end of file
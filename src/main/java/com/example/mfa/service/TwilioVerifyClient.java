@@ -0,0 +1,247 @@
+package com.example.mfa.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal client for the Twilio endpoints used by the SMS provider
+ * Covers Verify v2 (Verification, VerificationCheck, Service fetch) and the Messages API
+ * on the shared {@link HttpClient}, replacing the full Twilio SDK
+ */
+public class TwilioVerifyClient {
+
+    private static final String VERIFY_BASE_URL = "https://verify.twilio.com/v2";
+    private static final String API_BASE_URL = "https://api.twilio.com/2010-04-01";
+    // Paths below a custom base URL, which serves both APIs
+    private static final String VERIFY_PATH = "/v2";
+    private static final String API_PATH = "/2010-04-01";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final String accountSid;
+    private final String authorization;
+    private final String verifyBaseUrl;
+    private final String apiBaseUrl;
+    private final HttpClient httpClient;
+
+    public TwilioVerifyClient(String accountSid, String authToken) {
+        this(accountSid, authToken, null);
+    }
+
+    /**
+     * Create a client for a custom base URL (e.g. a local fake server), null for Twilio itself
+     */
+    public TwilioVerifyClient(String accountSid, String authToken, String baseUrl) {
+        this.accountSid = accountSid;
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            this.verifyBaseUrl = VERIFY_BASE_URL;
+            this.apiBaseUrl = API_BASE_URL;
+        } else {
+            String base = baseUrl.trim().replaceAll("/+$", "");
+            this.verifyBaseUrl = base + VERIFY_PATH;
+            this.apiBaseUrl = base + API_PATH;
+        }
+        this.authorization = "Basic " + Base64.getEncoder()
+            .encodeToString((accountSid + ":" + authToken).getBytes(StandardCharsets.UTF_8));
+        this.httpClient = HttpClientManager.getInstance().getClient();
+    }
+
+    /**
+     * Start a verification, returns the verification status
+     */
+    public CompletableFuture<String> createVerificationAsync(String serviceSid, String to, String channel) {
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("To", to);
+        form.put("Channel", channel);
+        return postAsync(verifyBaseUrl + "/Services/" + serviceSid + "/Verifications", form)
+            .thenApply(json -> json.path("status").asText(null));
+    }
+
+    /**
+     * Check a code for a verification, returns the verification status
+     */
+    public CompletableFuture<String> createVerificationCheckAsync(String serviceSid, String to, String code) {
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("To", to);
+        form.put("Code", code);
+        return postAsync(verifyBaseUrl + "/Services/" + serviceSid + "/VerificationCheck", form)
+            .thenApply(json -> json.path("status").asText(null));
+    }
+
+    /**
+     * Send a plain SMS from a phone number or Messaging Service SID, returns the message status
+     */
+    public CompletableFuture<String> createMessageAsync(String to, String from, boolean messagingService, String body) {
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("To", to);
+        form.put(messagingService ? "MessagingServiceSid" : "From", from);
+        form.put("Body", body);
+        return postAsync(apiBaseUrl + "/Accounts/" + accountSid + "/Messages.json", form)
+            .thenApply(json -> json.path("status").asText(null));
+    }
+
+    /**
+     * Fetch a Verify service, returns its friendly name
+     */
+    public CompletableFuture<String> fetchServiceAsync(String serviceSid) {
+        HttpRequest request = newRequest(verifyBaseUrl + "/Services/" + serviceSid).GET().build();
+        return sendAsync(request).thenApply(json -> json.path("friendly_name").asText(null));
+    }
+
+    /**
+     * Fetch a Verify service outside the adaptive limiter, returns its friendly name
+     * Used by health probes, which must neither take login slots nor feed the limiter's latency baseline
+     */
+    public CompletableFuture<String> probeServiceAsync(String serviceSid) {
+        HttpRequest request = newRequest(verifyBaseUrl + "/Services/" + serviceSid).GET().build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .thenApply(TwilioVerifyClient::toJson)
+            .thenApply(json -> json.path("friendly_name").asText(null));
+    }
+
+    /**
+     * Wait for an asynchronous call, unwrapping Twilio API errors
+     */
+    public static <T> T await(CompletableFuture<T> future) throws TwilioApiException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Twilio", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TwilioApiException) {
+                throw (TwilioApiException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Twilio request failed", cause);
+        }
+    }
+
+    private CompletableFuture<JsonNode> postAsync(String url, Map<String, String> form) {
+        HttpRequest request = newRequest(url)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(encodeForm(form)))
+            .build();
+        return sendAsync(request);
+    }
+
+    private HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Authorization", authorization)
+            .header("Accept", "application/json");
+    }
+
+    private CompletableFuture<JsonNode> sendAsync(HttpRequest request) {
+        return sendAsync(request, true);
+    }
+    
+    /**
+     * Send through the adaptive limiter of the host and account
+     * A 429 is retried once when its Retry-After fits into the limiter's wait budget
+     */
+    private CompletableFuture<JsonNode> sendAsync(HttpRequest request, boolean retryThrottled) {
+        AdaptiveLimiter limiter = UpstreamLimiterRegistry.getInstance().get(request.uri().getAuthority(), accountSid);
+        try {
+            limiter.acquire();
+        } catch (AdaptiveLimiter.LimitExceededException e) {
+            return CompletableFuture.failedFuture(new IOException("Twilio request not sent: " + e.getMessage(), e));
+        }
+        
+        long start = System.currentTimeMillis();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .whenComplete((response, error) -> limiter.release(
+                response != null ? AdaptiveLimiter.classify(response.statusCode()) : AdaptiveLimiter.Outcome.OVERLOADED,
+                System.currentTimeMillis() - start,
+                response != null ? getRetryAfterMillis(response) : -1L))
+            .thenCompose(response -> {
+                if (retryThrottled && response.statusCode() == HTTP_TOO_MANY_REQUESTS) {
+                    long retryAfter = getRetryAfterMillis(response);
+                    long delay = retryAfter >= 0 ? retryAfter : AdaptiveLimiter.DEFAULT_RETRY_AFTER_MILLIS;
+                    if (limiter.canWait(delay)) {
+                        Executor delayed = BlockingIoExecutor.getInstance().delayed(delay, TimeUnit.MILLISECONDS);
+                        return CompletableFuture.runAsync(() -> { }, delayed)
+                            .thenCompose(ignored -> sendAsync(request, false));
+                    }
+                }
+                return CompletableFuture.completedFuture(toJson(response));
+            });
+    }
+    
+    private static JsonNode toJson(HttpResponse<String> response) {
+        JsonNode json = parse(response.body());
+        if (response.statusCode() / 100 != 2) {
+            throw new CompletionException(new TwilioApiException(response.statusCode(),
+                json.path("code").asInt(0), json.path("message").asText("HTTP " + response.statusCode())));
+        }
+        return json;
+    }
+    
+    private static long getRetryAfterMillis(HttpResponse<String> response) {
+        return AdaptiveLimiter.parseRetryAfterMillis(response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    private static JsonNode parse(String body) {
+        try {
+            return JsonSerialization.mapper.readTree(body == null || body.isEmpty() ? "{}" : body);
+        } catch (IOException e) {
+            throw new CompletionException(new IOException("Invalid response from Twilio", e));
+        }
+    }
+
+    private static String encodeForm(Map<String, String> form) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, String> entry : form.entrySet()) {
+            if (encoded.length() > 0) {
+                encoded.append('&');
+            }
+            encoded.append(URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8))
+                .append('=')
+                .append(URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8));
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Error response returned by the Twilio API
+     */
+    public static class TwilioApiException extends Exception {
+        private final int statusCode;
+        private final int errorCode;
+
+        public TwilioApiException(int statusCode, int errorCode, String message) {
+            super("Twilio API error " + statusCode + " (" + errorCode + "): " + message);
+            this.statusCode = statusCode;
+            this.errorCode = errorCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.mfa.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton Pattern: Adaptive limiters per upstream host and credential
+ * Adapters are recreated per request, the limiters have to outlive them
+ */
+public class UpstreamLimiterRegistry {
+
+    private static UpstreamLimiterRegistry instance;
+
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    private UpstreamLimiterRegistry() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized UpstreamLimiterRegistry getInstance() {
+        if (instance == null) {
+            instance = new UpstreamLimiterRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the limiter of an upstream host and a non-secret credential id (account SID, bot id)
+     */
+    public AdaptiveLimiter get(String host, String credentialId) {
+        String name = host + "/" + credentialId;
+        return limiters.computeIfAbsent(name, key -> new AdaptiveLimiter(key, AdaptiveLimiter.DEFAULT_MAX_WAIT_MILLIS));
+    }
+
+    /**
+     * Get all limiters created so far
+     */
+    public Collection<AdaptiveLimiter> getLimiters() {
+        return Collections.unmodifiableCollection(limiters.values());
+    }
+}
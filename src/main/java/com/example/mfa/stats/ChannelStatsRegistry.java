@@ -0,0 +1,193 @@
+package com.example.mfa.stats;
+
+import com.example.mfa.util.LatencyWindow;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Singleton Pattern: Rolling delivery-to-verify statistics per MFA channel
+ * Kept realm-wide and per user in bounded, lock-free structures and used to
+ * recommend the channel most likely to complete fastest
+ */
+public class ChannelStatsRegistry {
+
+    private static final String[] CHANNELS = {"sms", "telegram", "email", "totp"};
+
+    // Upper bound on users with individual statistics
+    private static final int MAX_TRACKED_USERS = 50000;
+    // Users need this many samples for a channel before their own stats are preferred
+    private static final int MIN_USER_SAMPLES = 3;
+    // Realm stats need this many samples before they are used for recommendations
+    private static final int MIN_REALM_SAMPLES = 5;
+
+    private static ChannelStatsRegistry instance;
+
+    private final Map<String, LatencyWindow> realmStats = new ConcurrentHashMap<>();
+    private final Map<String, UserChannelStats> userStats = new ConcurrentHashMap<>();
+
+    private ChannelStatsRegistry() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized ChannelStatsRegistry getInstance() {
+        if (instance == null) {
+            instance = new ChannelStatsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Record a code that was verified the given time after it was sent
+     */
+    public void recordSuccess(String realmId, String userId, String channel, long latencyMillis) {
+        int index = indexOf(channel);
+        if (index < 0) {
+            return;
+        }
+        getRealmStats(realmId, channel).record(latencyMillis, true);
+        getUserStats(realmId, userId).record(index, latencyMillis, false);
+    }
+
+    /**
+     * Record a code that could not be sent or was never verified
+     */
+    public void recordFailure(String realmId, String userId, String channel) {
+        int index = indexOf(channel);
+        if (index < 0) {
+            return;
+        }
+        getRealmStats(realmId, channel).record(0L, false);
+        getUserStats(realmId, userId).record(index, 0L, true);
+    }
+
+    /**
+     * Recommend the channel with the lowest expected time to completion, null without enough data
+     */
+    public String recommend(String realmId, String userId, Collection<String> configuredChannels) {
+        UserChannelStats user = userStats.get(realmId + ":" + userId);
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+
+        for (String channel : configuredChannels) {
+            int index = indexOf(channel);
+            if (index < 0) {
+                continue;
+            }
+
+            double latency;
+            double failureRate;
+            if (user != null && user.samples(index) >= MIN_USER_SAMPLES && user.latency(index) > 0) {
+                latency = user.latency(index);
+                failureRate = user.failureRate(index);
+            } else {
+                LatencyWindow realm = realmStats.get(realmId + ":" + channel);
+                if (realm == null || realm.sampleCount() < MIN_REALM_SAMPLES || realm.percentile(50) < 0) {
+                    continue;
+                }
+                latency = realm.percentile(50);
+                failureRate = realm.errorRate();
+            }
+
+            // Expected time including retries after a failed delivery
+            double score = latency / Math.max(0.05, 1.0 - failureRate);
+            if (score < bestScore) {
+                bestScore = score;
+                best = channel;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the realm-wide statistics of a channel
+     */
+    public LatencyWindow getRealmStats(String realmId, String channel) {
+        return realmStats.computeIfAbsent(realmId + ":" + channel, key -> new LatencyWindow());
+    }
+
+    private UserChannelStats getUserStats(String realmId, String userId) {
+        String key = realmId + ":" + userId;
+        UserChannelStats stats = userStats.get(key);
+        if (stats == null) {
+            if (userStats.size() >= MAX_TRACKED_USERS) {
+                evict();
+            }
+            stats = userStats.computeIfAbsent(key, k -> new UserChannelStats(CHANNELS.length));
+        }
+        return stats;
+    }
+
+    /**
+     * Drop roughly a tenth of the tracked users to stay within bounds
+     */
+    private void evict() {
+        int toRemove = MAX_TRACKED_USERS / 10;
+        Iterator<String> keys = userStats.keySet().iterator();
+        while (keys.hasNext() && toRemove-- > 0) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static int indexOf(String channel) {
+        for (int i = 0; i < CHANNELS.length; i++) {
+            if (CHANNELS[i].equals(channel)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Exponentially weighted per-channel latency and failure rate of one user
+     * Slots per channel: latency (ms), failure rate (per mille), sample count
+     */
+    private static final class UserChannelStats {
+        private static final int SLOTS = 3;
+        private static final double ALPHA = 0.3;
+
+        private final AtomicLongArray values;
+
+        UserChannelStats(int channels) {
+            this.values = new AtomicLongArray(channels * SLOTS);
+        }
+
+        void record(int channel, long latencyMillis, boolean failed) {
+            int base = channel * SLOTS;
+            boolean first = values.getAndIncrement(base + 2) == 0;
+            if (!failed) {
+                // Latency only averages successful samples, zero means none seen yet
+                update(base, latencyMillis, values.get(base) == 0);
+            }
+            update(base + 1, failed ? 1000L : 0L, first);
+        }
+
+        long samples(int channel) {
+            return values.get(channel * SLOTS + 2);
+        }
+
+        double latency(int channel) {
+            return values.get(channel * SLOTS);
+        }
+
+        double failureRate(int channel) {
+            return values.get(channel * SLOTS + 1) / 1000.0;
+        }
+
+        private void update(int slot, long sample, boolean first) {
+            long current;
+            long next;
+            do {
+                current = values.get(slot);
+                next = first ? sample : Math.round(ALPHA * sample + (1 - ALPHA) * current);
+            } while (!values.compareAndSet(slot, current, next));
+        }
+    }
+}
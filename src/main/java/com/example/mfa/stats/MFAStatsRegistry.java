@@ -0,0 +1,111 @@
+package com.example.mfa.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton Pattern: Rolling-window operational statistics per realm and MFA method
+ * Each realm holds at most one fixed-size {@link RollingWindow} per method, so memory
+ * does not grow with traffic
+ */
+public class MFAStatsRegistry {
+
+    private static final String[] METHODS = {"sms", "telegram", "email", "totp"};
+    private static final int[] WINDOW_MINUTES = {1, 5, 60};
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private static MFAStatsRegistry instance;
+
+    private final Map<String, RollingWindow> windows = new ConcurrentHashMap<>();
+
+    private MFAStatsRegistry() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static synchronized MFAStatsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MFAStatsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Count an event of a method
+     */
+    public void increment(String realmId, String method, int counter) {
+        RollingWindow window = getWindow(realmId, method);
+        if (window != null) {
+            window.increment(counter);
+        }
+    }
+
+    /**
+     * Count an event of a method and record its latency
+     */
+    public void record(String realmId, String method, int counter, int histogram, long latencyMillis) {
+        RollingWindow window = getWindow(realmId, method);
+        if (window != null) {
+            window.record(counter, histogram, latencyMillis);
+        }
+    }
+
+    /**
+     * Get the statistics of a realm for the last 1, 5 and 60 minutes, keyed by window and method
+     */
+    public Map<String, Object> getStats(String realmId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (int minutes : WINDOW_MINUTES) {
+            Map<String, Object> methods = new LinkedHashMap<>();
+            for (String method : METHODS) {
+                RollingWindow window = windows.get(realmId + ":" + method);
+                methods.put(method, toMap(window != null ? window.snapshot(minutes) : new RollingWindow.Snapshot()));
+            }
+            result.put(minutes + "m", methods);
+        }
+        return result;
+    }
+
+    private RollingWindow getWindow(String realmId, String method) {
+        for (String known : METHODS) {
+            if (known.equals(method)) {
+                return windows.computeIfAbsent(realmId + ":" + method, key -> new RollingWindow());
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> toMap(RollingWindow.Snapshot snapshot) {
+        long sends = snapshot.get(RollingWindow.SENDS);
+        long sendFailures = snapshot.get(RollingWindow.SEND_FAILURES);
+        long verifications = snapshot.get(RollingWindow.VERIFICATIONS);
+        long verifyFailures = snapshot.get(RollingWindow.VERIFY_FAILURES);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sends", sends);
+        stats.put("sendFailures", sendFailures);
+        stats.put("sendFailureRatio", ratio(sendFailures, sends));
+        stats.put("verifications", verifications);
+        stats.put("verifyFailures", verifyFailures);
+        stats.put("failureRatio", ratio(verifyFailures, verifications));
+        stats.put("throttles", snapshot.get(RollingWindow.THROTTLES));
+        stats.put("sendLatency", latencies(snapshot, RollingWindow.SEND_LATENCY));
+        stats.put("verifyLatency", latencies(snapshot, RollingWindow.VERIFY_LATENCY));
+        return stats;
+    }
+
+    private static Map<String, Long> latencies(RollingWindow.Snapshot snapshot, int histogram) {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            latencies.put("p" + (int) percentile, snapshot.percentile(histogram, percentile));
+        }
+        return latencies;
+    }
+
+    private static double ratio(long part, long total) {
+        return total > 0 ? (double) part / total : 0.0;
+    }
+}
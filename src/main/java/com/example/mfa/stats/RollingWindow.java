@@ -0,0 +1,170 @@
+package com.example.mfa.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lock-free per-minute counters and latency histograms covering the last hour
+ * Minute buckets are reused in a ring, so memory is fixed regardless of traffic.
+ * Latencies go into log-linear (HDR-style) histograms with 8 sub-buckets per power
+ * of two, a relative error of at most 12.5% up to 65 seconds.
+ */
+public class RollingWindow {
+
+    // Counters
+    public static final int SENDS = 0;
+    public static final int SEND_FAILURES = 1;
+    public static final int VERIFICATIONS = 2;
+    public static final int VERIFY_FAILURES = 3;
+    public static final int THROTTLES = 4;
+    public static final int COUNTERS = 5;
+
+    // Histograms
+    public static final int SEND_LATENCY = 0;
+    public static final int VERIFY_LATENCY = 1;
+
+    public static final int MAX_WINDOW_MINUTES = 60;
+    // The ring keeps one minute more than the longest window
+    private static final int BUCKETS = MAX_WINDOW_MINUTES + 1;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 16;
+    static final int HISTOGRAM_BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Bucket layout: minute stamp, counters, send histogram, verify histogram
+    private static final int SLOTS = 1 + COUNTERS + 2 * HISTOGRAM_BUCKETS;
+    private static final int RESETTING = -1;
+
+    private final AtomicIntegerArray values = new AtomicIntegerArray(BUCKETS * SLOTS);
+
+    /**
+     * Count an event in the current minute
+     */
+    public void increment(int counter) {
+        int base = currentBucket();
+        if (base >= 0) {
+            values.incrementAndGet(base + 1 + counter);
+        }
+    }
+
+    /**
+     * Count an event in the current minute and record its latency
+     */
+    public void record(int counter, int histogram, long latencyMillis) {
+        int base = currentBucket();
+        if (base >= 0) {
+            values.incrementAndGet(base + 1 + counter);
+            values.incrementAndGet(base + 1 + COUNTERS + histogram * HISTOGRAM_BUCKETS + indexOf(latencyMillis));
+        }
+    }
+
+    /**
+     * Sum the current, partial minute and the previous minutes up to the given window length
+     * The window covers between minutes - 1 and minutes of wall time, never more
+     */
+    public Snapshot snapshot(int minutes) {
+        int now = currentMinute();
+        int oldest = now - Math.min(Math.max(minutes, 1), MAX_WINDOW_MINUTES) + 1;
+        Snapshot snapshot = new Snapshot();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            int base = bucket * SLOTS;
+            int stamp = values.get(base);
+            if (stamp < oldest || stamp > now) {
+                continue;
+            }
+            for (int i = 0; i < COUNTERS; i++) {
+                snapshot.counters[i] += values.get(base + 1 + i);
+            }
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                snapshot.histograms[SEND_LATENCY][i] += values.get(base + 1 + COUNTERS + i);
+                snapshot.histograms[VERIFY_LATENCY][i] += values.get(base + 1 + COUNTERS + HISTOGRAM_BUCKETS + i);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the offset of the current minute's bucket, recycling it if it holds an old minute
+     * Returns -1 while another thread recycles the bucket, the sample is then dropped
+     */
+    private int currentBucket() {
+        int minute = currentMinute();
+        int base = (minute % BUCKETS) * SLOTS;
+        int stamp = values.get(base);
+        if (stamp == minute) {
+            return base;
+        }
+        if (stamp == RESETTING || stamp > minute || !values.compareAndSet(base, stamp, RESETTING)) {
+            return values.get(base) == minute ? base : -1;
+        }
+        for (int i = 1; i < SLOTS; i++) {
+            values.set(base + i, 0);
+        }
+        values.set(base, minute);
+        return base;
+    }
+
+    private static int currentMinute() {
+        return (int) (System.currentTimeMillis() / 60000L);
+    }
+
+    static int indexOf(long latencyMillis) {
+        long value = Math.max(0L, latencyMillis);
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return HISTOGRAM_BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Midpoint of the latency range covered by a histogram bucket
+     */
+    static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    /**
+     * Aggregated counters and histograms of a time window
+     */
+    public static class Snapshot {
+        private final long[] counters = new long[COUNTERS];
+        private final long[][] histograms = new long[2][HISTOGRAM_BUCKETS];
+
+        public long get(int counter) {
+            return counters[counter];
+        }
+
+        /**
+         * Latency at the given percentile in milliseconds, -1 without samples
+         */
+        public long percentile(int histogram, double percentile) {
+            long[] counts = histograms[histogram];
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return -1L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return valueOf(i);
+                }
+            }
+            return valueOf(counts.length - 1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.mfa.stats;
+
+import com.example.mfa.event.AuthEvent;
+import com.example.mfa.event.AuthEventListener;
+
+/**
+ * Observer Pattern: Feeds send, verification and throttle events into the {@link MFAStatsRegistry}
+ * Sends and verifications count both successful and failed attempts
+ */
+public class StatsEventListener implements AuthEventListener {
+
+    private final MFAStatsRegistry registry;
+
+    public StatsEventListener() {
+        this.registry = MFAStatsRegistry.getInstance();
+    }
+
+    @Override
+    public void onEvent(AuthEvent event) {
+        if (event.getContext() == null || event.getContext().getRealm() == null) {
+            return;
+        }
+        String realmId = event.getContext().getRealm().getId();
+        String method = event.getMfaMethod();
+
+        switch (event.getType()) {
+            case MFA_CODE_SENT:
+                registry.record(realmId, method, RollingWindow.SENDS, RollingWindow.SEND_LATENCY,
+                    event.getDurationMillis());
+                break;
+            case MFA_CODE_SEND_FAILED:
+                registry.record(realmId, method, RollingWindow.SENDS, RollingWindow.SEND_LATENCY,
+                    event.getDurationMillis());
+                registry.increment(realmId, method, RollingWindow.SEND_FAILURES);
+                break;
+            case MFA_VERIFICATION_SUCCEEDED:
+            case MFA_VERIFICATION_FAILED:
+                // Verifications without a duration were skipped (trusted device, SSO reuse)
+                if (event.getDurationMillis() < 0) {
+                    return;
+                }
+                registry.record(realmId, method, RollingWindow.VERIFICATIONS, RollingWindow.VERIFY_LATENCY,
+                    event.getDurationMillis());
+                if (event.getType() == AuthEvent.EventType.MFA_VERIFICATION_FAILED) {
+                    registry.increment(realmId, method, RollingWindow.VERIFY_FAILURES);
+                }
+                break;
+            case MFA_THROTTLED:
+                registry.increment(realmId, method, RollingWindow.THROTTLES);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public AuthEvent.EventType[] getInterestedEventTypes() {
+        return new AuthEvent.EventType[] {
+            AuthEvent.EventType.MFA_CODE_SENT,
+            AuthEvent.EventType.MFA_CODE_SEND_FAILED,
+            AuthEvent.EventType.MFA_VERIFICATION_SUCCEEDED,
+            AuthEvent.EventType.MFA_VERIFICATION_FAILED,
+            AuthEvent.EventType.MFA_THROTTLED
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.mfa.util;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.SingleUseObjectProvider;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Singleton Pattern: Tracks failed verification attempts per user and applies temporary lockouts
+ * Kept in Keycloak's single-use object store, so every node of a cluster counts the same attempts
+ * and entries expire on their own once the lockout window has passed
+ */
+public class AttemptLimiter {
+
+    private static final String FAILURE_PREFIX = "mfa-attempt:";
+    private static final String LOCKOUT_PREFIX = "mfa-lockout:";
+    // Note on the failure marker holding the number of slots in use
+    private static final String SLOTS = "slots";
+    // Hard cap on the failures tracked per user, higher thresholds are clamped to it
+    private static final int MAX_TRACKED_FAILURES = 100;
+
+    private static AttemptLimiter instance;
+
+    private AttemptLimiter() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Get the singleton instance
+     */
+    public static synchronized AttemptLimiter getInstance() {
+        if (instance == null) {
+            instance = new AttemptLimiter();
+        }
+        return instance;
+    }
+
+    /**
+     * Build the tracking key for a user in a realm
+     */
+    public static String key(String realmId, String userId) {
+        return realmId + ":" + userId;
+    }
+
+    /**
+     * Check if the key is currently locked out
+     */
+    public boolean isLocked(KeycloakSession session, String key) {
+        return session.singleUseObjects().contains(LOCKOUT_PREFIX + key);
+    }
+
+    /**
+     * Record a failed attempt, returns true if this attempt locked the key out
+     * Each failure claims a free numbered slot that expires one lockout window after it, so the
+     * occupied slots are the failures within the window and concurrent failures never share a slot
+     */
+    public boolean recordFailure(KeycloakSession session, String key, int threshold, int lockoutSeconds) {
+        if (threshold <= 0) {
+            return false;
+        }
+        SingleUseObjectProvider store = session.singleUseObjects();
+        int slots = Math.min(threshold, MAX_TRACKED_FAILURES);
+        // The marker keeps the most slots used within the window, thresholds can differ between attempts
+        int usedSlots = Math.max(slots, usedSlots(store.get(FAILURE_PREFIX + key)));
+        store.put(FAILURE_PREFIX + key, lockoutSeconds, Collections.singletonMap(SLOTS, String.valueOf(usedSlots)));
+
+        int failures = 0;
+        boolean claimed = false;
+        for (int slot = 0; slot < slots; slot++) {
+            String slotKey = slotKey(key, slot);
+            if (!claimed) {
+                // Taken by an earlier failure or claimed now, either way it counts
+                claimed = store.putIfAbsent(slotKey, lockoutSeconds);
+                failures++;
+            } else if (store.contains(slotKey)) {
+                failures++;
+            }
+        }
+        if (failures < slots || !store.putIfAbsent(LOCKOUT_PREFIX + key, lockoutSeconds)) {
+            return false;
+        }
+        clearFailures(store, key, usedSlots);
+        return true;
+    }
+
+    /**
+     * Clear the failure history, typically after a successful verification
+     * Costs a single lookup for users without recent failures
+     */
+    public void reset(KeycloakSession session, String key) {
+        SingleUseObjectProvider store = session.singleUseObjects();
+        Map<String, String> marker = store.get(FAILURE_PREFIX + key);
+        if (marker != null) {
+            clearFailures(store, key, usedSlots(marker));
+        }
+    }
+
+    private static int usedSlots(Map<String, String> marker) {
+        if (marker == null) {
+            return 0;
+        }
+        try {
+            return Math.min(Integer.parseInt(marker.get(SLOTS)), MAX_TRACKED_FAILURES);
+        } catch (NumberFormatException e) {
+            return MAX_TRACKED_FAILURES;
+        }
+    }
+
+    private static void clearFailures(SingleUseObjectProvider store, String key, int slots) {
+        store.remove(FAILURE_PREFIX + key);
+        for (int slot = 0; slot < slots; slot++) {
+            store.remove(slotKey(key, slot));
+        }
+    }
+
+    private static String slotKey(String key, int slot) {
+        return FAILURE_PREFIX + key + ":" + slot;
+    }
+}
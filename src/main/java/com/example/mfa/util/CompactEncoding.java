@@ -0,0 +1,64 @@
+package com.example.mfa.util;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Compact key-value encoding shared by the flow state note and the user's MFA profile
+ * Format: <key><value>|<key><value>... with '|' and backslash escaped by a backslash
+ */
+final class CompactEncoding {
+
+    private static final char SEPARATOR = '|';
+    private static final char ESCAPE = '\\';
+
+    private CompactEncoding() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Append one entry to an encoded value
+     */
+    static void append(StringBuilder builder, char key, String value) {
+        if (builder.length() > 0) {
+            builder.append(SEPARATOR);
+        }
+        builder.append(key);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == ESCAPE) {
+                builder.append(ESCAPE);
+            }
+            builder.append(c);
+        }
+    }
+
+    /**
+     * Pass every entry of an encoded value to the consumer
+     */
+    static void decode(String encoded, BiConsumer<Character, String> consumer) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        StringBuilder value = new StringBuilder();
+        char key = 0;
+        boolean start = true;
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (start) {
+                key = c;
+                value.setLength(0);
+                start = false;
+            } else if (c == ESCAPE && i + 1 < encoded.length()) {
+                value.append(encoded.charAt(++i));
+            } else if (c == SEPARATOR) {
+                consumer.accept(key, value.toString());
+                start = true;
+            } else {
+                value.append(c);
+            }
+        }
+        if (!start) {
+            consumer.accept(key, value.toString());
+        }
+    }
+}
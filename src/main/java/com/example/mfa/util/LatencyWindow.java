@@ -0,0 +1,84 @@
+package com.example.mfa.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding window over the most recent call outcomes
+ * Keeps a fixed number of samples so memory stays constant regardless of traffic
+ */
+public class LatencyWindow {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    // Each slot packs (latencyMillis << 1) | failedBit, -1 marks an empty slot
+    private final AtomicLongArray samples;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public LatencyWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LatencyWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.samples = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            samples.set(i, -1L);
+        }
+    }
+
+    /**
+     * Record the outcome of a call
+     */
+    public void record(long latencyMillis, boolean success) {
+        long latency = Math.max(0L, latencyMillis);
+        int slot = (int) (cursor.getAndIncrement() % samples.length());
+        samples.set(slot, (latency << 1) | (success ? 0L : 1L));
+    }
+
+    /**
+     * Number of samples currently in the window
+     */
+    public int sampleCount() {
+        return (int) Math.min(cursor.get(), samples.length());
+    }
+
+    /**
+     * Fraction of failed calls in the window, 0 when there are no samples
+     */
+    public double errorRate() {
+        int total = 0;
+        int failed = 0;
+        for (int i = 0; i < samples.length(); i++) {
+            long sample = samples.get(i);
+            if (sample >= 0) {
+                total++;
+                failed += (int) (sample & 1L);
+            }
+        }
+        return total == 0 ? 0.0 : (double) failed / total;
+    }
+
+    /**
+     * Latency percentile (0-100) over successful calls, -1 when there are no successful samples
+     */
+    public long percentile(double percentile) {
+        long[] latencies = new long[samples.length()];
+        int count = 0;
+        for (int i = 0; i < samples.length(); i++) {
+            long sample = samples.get(i);
+            if (sample >= 0 && (sample & 1L) == 0) {
+                latencies[count++] = sample >>> 1;
+            }
+        }
+        if (count == 0) {
+            return -1L;
+        }
+        Arrays.sort(latencies, 0, count);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return latencies[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.mfa.util;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * All MFA flow state of an authentication session, kept in a single compactly encoded auth note
+ * Every auth note is serialized and replicated with the session entry, so one short note
+ * replaces the separate notes and is only rewritten when a value actually changed
+ */
+public class MFAFlowState {
+
+    public static final String NOTE = "mfa";
+
+    // Session attribute holding the decoded state for the rest of the request
+    private static final String CACHE_ATTRIBUTE_PREFIX = "mfa-flow-state:";
+
+    /**
+     * Fields of the flow state, each encoded with a one character key
+     */
+    public enum Field {
+        STATE('s'),
+        METHOD('m'),
+        FAILED_ATTEMPTS('f'),
+        // <method>:<sent at millis>
+        CODE_SENT('c'),
+        OTP_CODE('o'),
+        SMS_GATEWAY('g'),
+        SMS_VERIFY_OUTCOME('r'),
+        TOTP_CREDENTIAL('k'),
+        // Pending Telegram deep-link token
+        TELEGRAM_LINK('t'),
+        // <method>:<code> of the hedge code sent on a second channel
+        HEDGE('h');
+
+        private final char key;
+
+        Field(char key) {
+            this.key = key;
+        }
+
+        static Field forKey(char key) {
+            for (Field field : values()) {
+                if (field.key == key) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final AuthenticationSessionModel authSession;
+    private final Map<Field, String> values = new EnumMap<>(Field.class);
+    private String encoded;
+
+    private MFAFlowState(AuthenticationSessionModel authSession, String encoded) {
+        this.authSession = authSession;
+        this.encoded = encoded;
+        decodeInto(encoded, values);
+    }
+
+    /**
+     * Get the flow state of the current authentication session, decoded once per request
+     * The cached state is dropped when the note was changed outside of it, e.g. by a flow reset
+     */
+    public static MFAFlowState get(AuthenticationFlowContext context) {
+        AuthenticationSessionModel authSession = context.getAuthenticationSession();
+        KeycloakSession session = context.getSession();
+        String attribute = CACHE_ATTRIBUTE_PREFIX + System.identityHashCode(authSession);
+        MFAFlowState cached = session.getAttribute(attribute, MFAFlowState.class);
+        String encoded = authSession.getAuthNote(NOTE);
+        if (cached != null && cached.authSession == authSession && Objects.equals(cached.encoded, encoded)) {
+            return cached;
+        }
+        MFAFlowState state = new MFAFlowState(authSession, encoded);
+        session.setAttribute(attribute, state);
+        return state;
+    }
+
+    /**
+     * Get the flow state stored in an authentication session
+     */
+    public static MFAFlowState get(AuthenticationSessionModel authSession) {
+        return new MFAFlowState(authSession, authSession.getAuthNote(NOTE));
+    }
+
+    /**
+     * Decode a note value without a backing session, changes are not persisted
+     */
+    public static MFAFlowState decode(String encoded) {
+        return new MFAFlowState(null, encoded);
+    }
+
+    public String get(Field field) {
+        return values.get(field);
+    }
+
+    public int getInt(Field field) {
+        String value = values.get(field);
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Set a field, a null value removes it
+     */
+    public MFAFlowState set(Field field, String value) {
+        if (value == null) {
+            return remove(field);
+        }
+        if (!value.equals(values.put(field, value))) {
+            write();
+        }
+        return this;
+    }
+
+    public MFAFlowState setInt(Field field, int value) {
+        return set(field, String.valueOf(value));
+    }
+
+    public MFAFlowState remove(Field field) {
+        if (values.remove(field) != null) {
+            write();
+        }
+        return this;
+    }
+
+    /**
+     * Get the encoded note value, null when empty
+     */
+    public String encode() {
+        if (values.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Field, String> entry : values.entrySet()) {
+            CompactEncoding.append(builder, entry.getKey().key, entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the note, skipped when the encoded value is unchanged
+     */
+    private void write() {
+        String updated = encode();
+        if (updated == null ? encoded == null : updated.equals(encoded)) {
+            return;
+        }
+        encoded = updated;
+        if (authSession == null) {
+            return;
+        }
+        if (updated == null) {
+            authSession.removeAuthNote(NOTE);
+        } else {
+            authSession.setAuthNote(NOTE, updated);
+        }
+    }
+
+    private static void decodeInto(String encoded, Map<Field, String> values) {
+        CompactEncoding.decode(encoded, (key, value) -> {
+            Field field = Field.forKey(key);
+            if (field != null) {
+                values.put(field, value);
+            }
+        });
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.mfa.util;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.utils.KeycloakSessionUtil;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A user's MFA enrollment: destinations, preferred method and enrollment times
+ * Stored in a single versioned user attribute, so every method check costs one attribute
+ * read (a remote lookup with some federated stores) instead of one per method. The value
+ * is only decoded when a field is first read, and one instance per user is kept for the
+ * request. Users without the attribute keep using the separate attributes until a
+ * migrating read copies them into the profile. Federated users are never migrated
+ */
+public class MFAProfile {
+    private static final Logger logger = Logger.getLogger(MFAProfile.class);
+
+    public static final String ATTRIBUTE = "mfaProfile";
+    // Separate attributes used without a profile
+    public static final String PHONE_NUMBER_ATTRIBUTE = "phoneNumber";
+    public static final String TELEGRAM_ID_ATTRIBUTE = "telegramId";
+    public static final String PREFERRED_METHOD_ATTRIBUTE = "mfaPreferredMethod";
+
+    private static final String CURRENT_VERSION = "1";
+    private static final String SESSION_ATTRIBUTE_PREFIX = "mfa-profile:";
+
+    /**
+     * Fields of the profile, each encoded with a one character key
+     */
+    public enum Field {
+        VERSION('v', null),
+        PHONE_NUMBER('p', PHONE_NUMBER_ATTRIBUTE),
+        TELEGRAM_ID('t', TELEGRAM_ID_ATTRIBUTE),
+        PREFERRED_METHOD('m', PREFERRED_METHOD_ATTRIBUTE),
+        // Epoch seconds a method was enrolled, only kept in the profile
+        SMS_ENROLLED('s', null),
+        TELEGRAM_ENROLLED('g', null),
+        EMAIL_ENROLLED('e', null);
+
+        private final char key;
+        private final String legacyAttribute;
+
+        Field(char key, String legacyAttribute) {
+            this.key = key;
+            this.legacyAttribute = legacyAttribute;
+        }
+
+        static Field forKey(char key) {
+            for (Field field : values()) {
+                if (field.key == key) {
+                    return field;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the enrollment time field of a method, null if none is kept
+         */
+        public static Field enrolledField(String method) {
+            switch (method) {
+                case "sms":
+                    return SMS_ENROLLED;
+                case "telegram":
+                    return TELEGRAM_ENROLLED;
+                case "email":
+                    return EMAIL_ENROLLED;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final UserModel user;
+    // All attributes read at once, set instead of the user for read-only profiles
+    private final Map<String, List<String>> attributes;
+    // Encoded attribute value, null while the user has no profile
+    private String encoded;
+    private Map<Field, String> values;
+
+    private MFAProfile(UserModel user, Map<String, List<String>> attributes, String encoded) {
+        this.user = user;
+        this.attributes = attributes;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Get the profile of a user, migrating the separate attributes into a profile if requested
+     */
+    public static MFAProfile get(UserModel user, boolean migrate) {
+        KeycloakSession session = KeycloakSessionUtil.getKeycloakSession();
+        String sessionKey = SESSION_ATTRIBUTE_PREFIX + user.getId();
+        Object cached = session != null ? session.getAttribute(sessionKey) : null;
+        MFAProfile profile = cached instanceof MFAProfile ? (MFAProfile) cached
+            : new MFAProfile(user, null, user.getFirstAttribute(ATTRIBUTE));
+
+        if (migrate && !profile.isStored()) {
+            profile.migrate();
+        }
+        if (session != null && cached != profile) {
+            session.setAttribute(sessionKey, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Get a read-only profile from attributes already read with {@link UserModel#getAttributes()}
+     */
+    public static MFAProfile of(Map<String, List<String>> attributes) {
+        return new MFAProfile(null, attributes, firstValue(attributes, ATTRIBUTE));
+    }
+
+    /**
+     * Check if the user's data is kept in the profile attribute
+     */
+    public boolean isStored() {
+        return encoded != null;
+    }
+
+    public String get(Field field) {
+        if (!isStored()) {
+            return field.legacyAttribute != null ? attribute(field.legacyAttribute) : null;
+        }
+        return decoded().get(field);
+    }
+
+    /**
+     * Set a field, a null value removes it
+     */
+    public void set(Field field, String value) {
+        if (user == null) {
+            throw new IllegalStateException("MFA profile is read-only");
+        }
+        if (!isStored()) {
+            if (field.legacyAttribute == null) {
+                return;
+            }
+            if (value == null) {
+                user.removeAttribute(field.legacyAttribute);
+            } else {
+                user.setSingleAttribute(field.legacyAttribute, value);
+            }
+            return;
+        }
+
+        Map<Field, String> current = decoded();
+        String previous = value == null ? current.remove(field) : current.put(field, value);
+        if (value == null ? previous != null : !value.equals(previous)) {
+            encoded = encode(current);
+            user.setSingleAttribute(ATTRIBUTE, encoded);
+        }
+    }
+
+    /**
+     * Record that a method was enrolled now
+     */
+    public void markEnrolled(String method) {
+        Field field = Field.enrolledField(method);
+        if (field != null) {
+            set(field, String.valueOf(System.currentTimeMillis() / 1000L));
+        }
+    }
+
+    /**
+     * Copy the separate attributes into a new profile and remove them
+     * Runs on the caller's user in the caller's transaction, a failure rolls back with the request
+     */
+    private void migrate() {
+        if (user.getFederationLink() != null) {
+            // The federated store may map the separate attributes, e.g. phoneNumber from LDAP, keep reading them live
+            return;
+        }
+        Map<Field, String> migrated = new EnumMap<>(Field.class);
+        migrated.put(Field.VERSION, CURRENT_VERSION);
+        for (Field field : Field.values()) {
+            String value = field.legacyAttribute != null ? user.getFirstAttribute(field.legacyAttribute) : null;
+            if (value != null && !value.isEmpty()) {
+                migrated.put(field, value);
+            }
+        }
+
+        String value = encode(migrated);
+        // Failures propagate so the transaction rolls back instead of committing a partial migration
+        user.setSingleAttribute(ATTRIBUTE, value);
+        for (Field field : Field.values()) {
+            if (field.legacyAttribute != null && migrated.containsKey(field)) {
+                user.removeAttribute(field.legacyAttribute);
+            }
+        }
+        encoded = value;
+        values = migrated;
+        logger.debug("Migrated MFA attributes into profile for user " + user.getUsername());
+    }
+
+    private String attribute(String name) {
+        return user != null ? user.getFirstAttribute(name) : firstValue(attributes, name);
+    }
+
+    private static String firstValue(Map<String, List<String>> attributes, String name) {
+        List<String> values = attributes.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    private Map<Field, String> decoded() {
+        if (values == null) {
+            Map<Field, String> decoded = new EnumMap<>(Field.class);
+            CompactEncoding.decode(encoded, (key, value) -> {
+                Field field = Field.forKey(key);
+                if (field != null) {
+                    decoded.put(field, value);
+                }
+            });
+            values = decoded;
+        }
+        return values;
+    }
+
+    private static String encode(Map<Field, String> values) {
+        StringBuilder builder = new StringBuilder();
+        // The version always comes first, a later layout can recognize and convert older values
+        CompactEncoding.append(builder, Field.VERSION.key, CURRENT_VERSION);
+        for (Map.Entry<Field, String> entry : values.entrySet()) {
+            if (entry.getKey() != Field.VERSION) {
+                CompactEncoding.append(builder, entry.getKey().key, entry.getValue());
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mfa.util;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import com.example.mfa.config.MFAConfig;
+
+import java.util.Locale;
+
+/**
+ * Per-request stage durations of the MFA authenticator, sent as a Server-Timing header
+ * When disabled for the realm a shared no-op instance is used, so timing costs one
+ * session attribute lookup per request and no clock reads
+ */
+public class ServerTiming {
+
+    public static final String HEADER = "Server-Timing";
+
+    private static final String ATTRIBUTE = ServerTiming.class.getName();
+    private static final ServerTiming DISABLED = new ServerTiming(false);
+
+    /**
+     * Measured stages, named as they appear in the header
+     */
+    public enum Stage {
+        PROVIDER("provider", "Provider resolution"),
+        CONFIGURED("configured", "Configured-method check"),
+        OTP("otp", "OTP generation"),
+        SEND("send", "Upstream send"),
+        VERIFY("verify", "Code verification"),
+        RENDER("render", "Template render");
+
+        private final String metric;
+        private final String description;
+
+        Stage(String metric, String description) {
+            this.metric = metric;
+            this.description = description;
+        }
+    }
+
+    private final boolean enabled;
+    private final long[] nanos;
+    private final boolean[] measured;
+
+    private ServerTiming(boolean enabled) {
+        this.enabled = enabled;
+        this.nanos = enabled ? new long[Stage.values().length] : null;
+        this.measured = enabled ? new boolean[Stage.values().length] : null;
+    }
+
+    /**
+     * Get the timing of the current request, created on first use
+     */
+    public static ServerTiming get(AuthenticationFlowContext context) {
+        Object existing = context.getSession().getAttribute(ATTRIBUTE);
+        if (existing instanceof ServerTiming) {
+            return (ServerTiming) existing;
+        }
+        boolean enabled = new MFAConfig(context.getAuthenticatorConfig()).isServerTimingEnabled();
+        ServerTiming timing = enabled ? new ServerTiming(true) : DISABLED;
+        context.getSession().setAttribute(ATTRIBUTE, timing);
+        return timing;
+    }
+
+    /**
+     * Start measuring, pass the result to {@link #stop}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Add the time since start to a stage, repeated stages are summed
+     */
+    public void stop(Stage stage, long start) {
+        if (enabled) {
+            nanos[stage.ordinal()] += System.nanoTime() - start;
+            measured[stage.ordinal()] = true;
+        }
+    }
+
+    /**
+     * Set the Server-Timing header on the response of the current request
+     */
+    public void writeHeader(AuthenticationFlowContext context) {
+        if (!enabled) {
+            return;
+        }
+        StringBuilder header = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (!measured[stage.ordinal()]) {
+                continue;
+            }
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(stage.metric)
+                .append(";desc=\"").append(stage.description).append('"')
+                .append(";dur=").append(String.format(Locale.ROOT, "%.1f", nanos[stage.ordinal()] / 1_000_000.0));
+        }
+        if (header.length() > 0) {
+            context.getSession().getContext().getHttpResponse().setHeader(HEADER, header.toString());
+        }
+    }
+}
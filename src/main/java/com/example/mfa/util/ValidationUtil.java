@@ -40,4 +40,12 @@ public class ValidationUtil {
     public static boolean isValidVerificationCode(String code, int expectedLength) {
         return code != null && code.matches("^\\d{" + expectedLength + "}$");
     }
+
+    /**
+     * Validate a verification code whose length is set by the sender
+     * Must be digits only, between the minimum and maximum length
+     */
+    public static boolean isValidVerificationCode(String code, int minLength, int maxLength) {
+        return code != null && code.matches("^\\d{" + minLength + "," + maxLength + "}$");
+    }
 }
\ No newline at end of file
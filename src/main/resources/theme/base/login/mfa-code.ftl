@@ -25,6 +25,16 @@
                 </div>
             </div>
 
+            <#if trusted_device_enabled?? && trusted_device_enabled>
+                <div class="${properties.kcFormGroupClass!}">
+                    <div class="checkbox">
+                        <label>
+                            <input id="remember-device" name="remember-device" type="checkbox"> ${msg("rememberDevice")}
+                        </label>
+                    </div>
+                </div>
+            </#if>
+
             <div class="${properties.kcFormGroupClass!}">
                 <div id="kc-form-buttons" class="${properties.kcFormButtonsClass!}">
                     <input class="${properties.kcButtonClass!} ${properties.kcButtonPrimaryClass!} ${properties.kcButtonBlockClass!} ${properties.kcButtonLargeClass!}"
@@ -32,5 +42,27 @@
                 </div>
             </div>
         </form>
+        <form id="kc-switch-method-form" class="${properties.kcFormClass!}" action="${url.loginAction}" method="post">
+            <input type="hidden" name="switch-method" value="true"/>
+            <div class="${properties.kcFormOptionsWrapperClass!}">
+                <span><a href="#" onclick="document.getElementById('kc-switch-method-form').submit(); return false;">${msg("useDifferentMethod")}</a></span>
+            </div>
+        </form>
+        <#if hedge_after_ms??>
+            <script>
+                // Ask for a second channel if no code was entered within the primary channel's p95
+                setTimeout(function () {
+                    var form = document.getElementById("kc-otp-login-form");
+                    if (document.getElementById("code").value === "") {
+                        var hedge = document.createElement("input");
+                        hedge.type = "hidden";
+                        hedge.name = "hedge";
+                        hedge.value = "true";
+                        form.appendChild(hedge);
+                        form.submit();
+                    }
+                }, ${hedge_after_ms?c});
+            </script>
+        </#if>
     </#if>
 </@layout.registrationLayout>
\ No newline at end of file
@@ -18,6 +18,14 @@
                     </div>
                 </div>
             <#elseif method?? && method == "telegram">
+                <#if telegram_link??>
+                    <div class="${properties.kcFormGroupClass!}">
+                        <p>${msg("telegramLinkInstructions")}</p>
+                        <a id="telegram-link" href="${telegram_link}" target="_blank" rel="noopener"
+                           class="${properties.kcButtonClass!} ${properties.kcButtonDefaultClass!} ${properties.kcButtonBlockClass!}">${msg("telegramOpenBot")}</a>
+                        <p id="telegram-link-waiting" style="margin-top: 10px;">${msg("telegramLinkWaiting")}</p>
+                    </div>
+                </#if>
                 <div class="${properties.kcFormGroupClass!}">
                     <div class="${properties.kcLabelWrapperClass!}">
                         <label for="telegramId" class="${properties.kcLabelClass!}">${msg("Telegram Chat ID")}</label>
@@ -56,5 +64,21 @@
                 </div>
             </div>
         </form>
+        <#if method?? && method == "telegram" && telegram_link??>
+            <script>
+                // Re-submit until the webhook has bound the chat, unless an id is being typed
+                setTimeout(function () {
+                    var form = document.getElementById("kc-mfa-config-form");
+                    if (document.getElementById("telegramId").value === "") {
+                        var poll = document.createElement("input");
+                        poll.type = "hidden";
+                        poll.name = "telegram-link-poll";
+                        poll.value = "true";
+                        form.appendChild(poll);
+                        form.submit();
+                    }
+                }, 3000);
+            </script>
+        </#if>
     </#if>
 </@layout.registrationLayout>
\ No newline at end of file
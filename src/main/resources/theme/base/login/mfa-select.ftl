@@ -12,23 +12,23 @@
                 <div class="${properties.kcInputWrapperClass!}">
                     <div>
                         <input type="radio" id="sms" name="mfa-method" value="sms" 
-                            <#if sms_configured?? && sms_configured>checked</#if>>
-                        <label for="sms">SMS <#if !sms_configured?? || !sms_configured>(${msg("Not Configured")})</#if></label>
+                            <#if recommended_method??><#if recommended_method == "sms">checked</#if><#elseif sms_configured?? && sms_configured>checked</#if>>
+                        <label for="sms">SMS <#if !sms_configured?? || !sms_configured>(${msg("Not Configured")})</#if><#if recommended_method?? && recommended_method == "sms"> (${msg("recommendedMethod")})</#if></label>
                     </div>
                     <div>
                         <input type="radio" id="telegram" name="mfa-method" value="telegram"
-                            <#if telegram_configured?? && telegram_configured>checked</#if>>
-                        <label for="telegram">Telegram <#if !telegram_configured?? || !telegram_configured>(${msg("Not Configured")})</#if></label>
+                            <#if recommended_method??><#if recommended_method == "telegram">checked</#if><#elseif telegram_configured?? && telegram_configured>checked</#if>>
+                        <label for="telegram">Telegram <#if !telegram_configured?? || !telegram_configured>(${msg("Not Configured")})</#if><#if recommended_method?? && recommended_method == "telegram"> (${msg("recommendedMethod")})</#if></label>
                     </div>
                     <div>
                         <input type="radio" id="email" name="mfa-method" value="email"
-                            <#if email_configured?? && email_configured>checked</#if>>
-                        <label for="email">Email <#if !email_configured?? || !email_configured>(${msg("Not Configured")})</#if></label>
+                            <#if recommended_method??><#if recommended_method == "email">checked</#if><#elseif email_configured?? && email_configured>checked</#if>>
+                        <label for="email">Email <#if !email_configured?? || !email_configured>(${msg("Not Configured")})</#if><#if recommended_method?? && recommended_method == "email"> (${msg("recommendedMethod")})</#if></label>
                     </div>
                     <div>
                         <input type="radio" id="totp" name="mfa-method" value="totp"
-                            <#if totp_configured?? && totp_configured>checked</#if>>
-                        <label for="totp">Authenticator App <#if !totp_configured?? || !totp_configured>(${msg("Not Configured")})</#if></label>
+                            <#if recommended_method??><#if recommended_method == "totp">checked</#if><#elseif totp_configured?? && totp_configured>checked</#if>>
+                        <label for="totp">Authenticator App <#if !totp_configured?? || !totp_configured>(${msg("Not Configured")})</#if><#if recommended_method?? && recommended_method == "totp"> (${msg("recommendedMethod")})</#if></label>
                     </div>
                 </div>
             </div>
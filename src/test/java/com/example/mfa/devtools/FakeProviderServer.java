@@ -0,0 +1,481 @@
+package com.example.mfa.devtools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Twilio and Telegram Bot APIs, for development, load and integration tests
+ * Implements Verify v2 (Verification, VerificationCheck, Service fetch), the Messages API and the
+ * Telegram sendMessage and getMe methods, with configurable latency and error injection.
+ * Every message is kept in an inbox that can be read over HTTP, so tests can pick up sent codes.
+ * Point the adapters at it with the "twilioBaseUrl" and "telegramBaseUrl" settings.
+ * Test code only, it never ships in the plugin jar. It listens on the loopback interface
+ * because the inbox and control endpoints are unauthenticated. Runs outside Keycloak with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.mfa.devtools.FakeProviderServer
+ */
+public class FakeProviderServer {
+    private static final Logger logger = Logger.getLogger(FakeProviderServer.class);
+
+    public static final int DEFAULT_PORT = 8099;
+
+    private static final int INBOX_CAPACITY = 10000;
+    private static final int MAX_CHECK_ATTEMPTS = 5;
+    private static final long VERIFICATION_TTL_MILLIS = 10 * 60 * 1000L;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    // Sent with injected 429 errors as Retry-After / retry_after
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final Pattern CODE_PATTERN = Pattern.compile("\\b(\\d{4,8})\\b");
+
+    private static final Pattern VERIFICATIONS = Pattern.compile("/v2/Services/([^/]+)/Verifications");
+    private static final Pattern VERIFICATION_CHECK = Pattern.compile("/v2/Services/([^/]+)/VerificationCheck");
+    private static final Pattern SERVICE = Pattern.compile("/v2/Services/([^/]+)");
+    private static final Pattern MESSAGES = Pattern.compile("/2010-04-01/Accounts/([^/]+)/Messages\\.json");
+    private static final Pattern TELEGRAM = Pattern.compile("/bot([^/]+)/(sendMessage|getMe)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private final Map<String, Verification> verifications = new ConcurrentHashMap<>();
+    private final Deque<Message> inbox = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger inboxSize = new AtomicInteger();
+
+    private final AtomicLong latencyMillis = new AtomicLong();
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+
+    public FakeProviderServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(16, runnable -> {
+            Thread thread = new Thread(runnable, "fake-provider-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+        FakeProviderServer fake = new FakeProviderServer(port);
+        for (String arg : args) {
+            if (arg.startsWith("--latency=")) {
+                fake.setLatencyMillis(Long.parseLong(arg.substring("--latency=".length())));
+            } else if (arg.startsWith("--error-rate=")) {
+                fake.setErrorRate(Double.parseDouble(arg.substring("--error-rate=".length())));
+            } else if (arg.startsWith("--error-status=")) {
+                fake.setErrorStatus(Integer.parseInt(arg.substring("--error-status=".length())));
+            }
+        }
+        fake.start();
+        logger.info("Fake Twilio/Telegram server listening on " + fake.getBaseUrl());
+        logger.info("Sent messages: GET " + fake.getBaseUrl() + "/inbox[?to=...], clear with DELETE");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Base URL to configure as "twilioBaseUrl" and "telegramBaseUrl"
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delay added to every API response
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis.set(Math.max(0L, latencyMillis));
+    }
+
+    /**
+     * Fraction of API requests (0 to 1) answered with the error status
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = Math.max(0.0, Math.min(1.0, errorRate));
+    }
+
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Messages sent so far, oldest first, optionally only those to one recipient
+     */
+    public List<Message> getInbox(String to) {
+        List<Message> messages = new ArrayList<>();
+        for (Message message : inbox) {
+            if (to == null || to.equals(message.to)) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Code of the latest message to a recipient, null if none was sent
+     */
+    public String getLatestCode(String to) {
+        List<Message> messages = getInbox(to);
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1).code;
+    }
+
+    public void clearInbox() {
+        inbox.clear();
+        inboxSize.set(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/inbox")) {
+                handleInbox(exchange);
+                return;
+            }
+            if (path.equals("/control")) {
+                handleControl(exchange);
+                return;
+            }
+
+            long delay = latencyMillis.get();
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            Matcher telegram = TELEGRAM.matcher(path);
+            if (telegram.matches()) {
+                handleTelegram(exchange, telegram.group(1), telegram.group(2));
+            } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendTwilioError(exchange, errorStatus, 20500, "Injected error");
+            } else {
+                handleTwilio(exchange, path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "{}");
+        } catch (RuntimeException e) {
+            send(exchange, 500, "{\"message\":" + quote(String.valueOf(e.getMessage())) + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleTwilio(HttpExchange exchange, String path) throws IOException {
+        Matcher matcher;
+        if ((matcher = VERIFICATIONS.matcher(path)).matches() && isPost(exchange)) {
+            Map<String, String> form = parseForm(readBody(exchange));
+            String to = form.get("To");
+            if (to == null || to.isEmpty()) {
+                sendTwilioError(exchange, 400, 60200, "Invalid parameter: To");
+                return;
+            }
+            String code = String.format("%06d", random.nextInt(1000000));
+            String sid = "VE" + id();
+            verifications.put(matcher.group(1) + ":" + to, new Verification(sid, code));
+            addToInbox(new Message("twilio-verify", matcher.group(1), to, "Your verification code is: " + code, code));
+            send(exchange, 201, verificationJson(sid, matcher.group(1), to, form.getOrDefault("Channel", "sms"), "pending"));
+        } else if ((matcher = VERIFICATION_CHECK.matcher(path)).matches() && isPost(exchange)) {
+            Map<String, String> form = parseForm(readBody(exchange));
+            String key = matcher.group(1) + ":" + form.get("To");
+            Verification verification = verifications.get(key);
+            if (verification == null || verification.isExpired()) {
+                verifications.remove(key);
+                sendTwilioError(exchange, 404, 20404, "The requested resource was not found");
+                return;
+            }
+            String status;
+            synchronized (verification) {
+                if (verification.code.equals(form.get("Code"))) {
+                    status = "approved";
+                    verifications.remove(key);
+                } else {
+                    status = "pending";
+                    if (++verification.attempts >= MAX_CHECK_ATTEMPTS) {
+                        verifications.remove(key);
+                    }
+                }
+            }
+            send(exchange, 200, verificationJson(verification.sid, matcher.group(1), form.get("To"), "sms", status));
+        } else if ((matcher = MESSAGES.matcher(path)).matches() && isPost(exchange)) {
+            Map<String, String> form = parseForm(readBody(exchange));
+            String body = form.getOrDefault("Body", "");
+            addToInbox(new Message("twilio-sms", matcher.group(1), form.get("To"), body, extractCode(body)));
+            send(exchange, 201, "{\"sid\":\"SM" + id() + "\",\"account_sid\":" + quote(matcher.group(1))
+                + ",\"to\":" + quote(form.get("To")) + ",\"status\":\"queued\"}");
+        } else if ((matcher = SERVICE.matcher(path)).matches()) {
+            send(exchange, 200, "{\"sid\":" + quote(matcher.group(1)) + ",\"friendly_name\":\"Fake Verify Service\"}");
+        } else {
+            sendTwilioError(exchange, 404, 20404, "The requested resource was not found");
+        }
+    }
+
+    private void handleTelegram(HttpExchange exchange, String token, String method) throws IOException {
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            String parameters = errorStatus == HTTP_TOO_MANY_REQUESTS
+                ? ",\"parameters\":{\"retry_after\":" + RETRY_AFTER_SECONDS + "}" : "";
+            send(exchange, errorStatus, "{\"ok\":false,\"error_code\":" + errorStatus
+                + ",\"description\":\"Injected error\"" + parameters + "}");
+            return;
+        }
+        if ("getMe".equals(method)) {
+            send(exchange, 200, "{\"ok\":true,\"result\":{\"id\":1,\"is_bot\":true,\"username\":\"fake_mfa_bot\"}}");
+            return;
+        }
+
+        String body = readBody(exchange);
+        Map<String, String> params = body.trim().startsWith("{") ? parseJsonStrings(body) : parseForm(body);
+        String chatId = params.get("chat_id");
+        String text = params.getOrDefault("text", "");
+        if (chatId == null || chatId.isEmpty()) {
+            send(exchange, 400, "{\"ok\":false,\"error_code\":400,\"description\":\"Bad Request: chat not found\"}");
+            return;
+        }
+        addToInbox(new Message("telegram", token, chatId, text, extractCode(text)));
+        send(exchange, 200, "{\"ok\":true,\"result\":{\"message_id\":" + sequence.incrementAndGet()
+            + ",\"chat\":{\"id\":" + quote(chatId) + "},\"text\":" + quote(text) + "}}");
+    }
+
+    private void handleInbox(HttpExchange exchange) throws IOException {
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            clearInbox();
+            send(exchange, 204, null);
+            return;
+        }
+        String to = parseForm(exchange.getRequestURI().getRawQuery()).get("to");
+        StringBuilder json = new StringBuilder("[");
+        for (Message message : getInbox(to)) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(message.toJson());
+        }
+        send(exchange, 200, json.append(']').toString());
+    }
+
+    private void handleControl(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseForm(exchange.getRequestURI().getRawQuery());
+        if (params.containsKey("latency")) {
+            setLatencyMillis(Long.parseLong(params.get("latency")));
+        }
+        if (params.containsKey("errorRate")) {
+            setErrorRate(Double.parseDouble(params.get("errorRate")));
+        }
+        if (params.containsKey("errorStatus")) {
+            setErrorStatus(Integer.parseInt(params.get("errorStatus")));
+        }
+        send(exchange, 200, "{\"latency\":" + latencyMillis.get() + ",\"errorRate\":" + errorRate
+            + ",\"errorStatus\":" + errorStatus + "}");
+    }
+
+    private void addToInbox(Message message) {
+        inbox.addLast(message);
+        if (inboxSize.incrementAndGet() > INBOX_CAPACITY && inbox.pollFirst() != null) {
+            inboxSize.decrementAndGet();
+        }
+    }
+
+    private String id() {
+        return String.format("%032x", sequence.incrementAndGet());
+    }
+
+    private static String verificationJson(String sid, String serviceSid, String to, String channel, String status) {
+        return "{\"sid\":" + quote(sid) + ",\"service_sid\":" + quote(serviceSid) + ",\"to\":" + quote(to)
+            + ",\"channel\":" + quote(channel) + ",\"status\":" + quote(status)
+            + ",\"valid\":" + "approved".equals(status) + "}";
+    }
+
+    private static void sendTwilioError(HttpExchange exchange, int status, int code, String message) throws IOException {
+        if (status == HTTP_TOO_MANY_REQUESTS) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        }
+        send(exchange, status, "{\"code\":" + code + ",\"message\":" + quote(message) + ",\"status\":" + status + "}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static boolean isPost(HttpExchange exchange) {
+        return "POST".equals(exchange.getRequestMethod());
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return values;
+        }
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                values.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read the top-level string and number members of a flat JSON object
+     */
+    private static Map<String, String> parseJsonStrings(String json) {
+        Map<String, String> values = new LinkedHashMap<>();
+        Matcher matcher = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(\"((?:[^\"\\\\]|\\\\.)*)\"|-?\\d+)").matcher(json);
+        while (matcher.find()) {
+            String value = matcher.group(3) != null ? matcher.group(3).replace("\\\"", "\"") : matcher.group(2);
+            values.put(matcher.group(1), value);
+        }
+        return values;
+    }
+
+    private static String extractCode(String text) {
+        Matcher matcher = CODE_PATTERN.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static final class Verification {
+        private final String sid;
+        private final String code;
+        private final long createdAt = System.currentTimeMillis();
+        private int attempts;
+
+        Verification(String sid, String code) {
+            this.sid = sid;
+            this.code = code;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > VERIFICATION_TTL_MILLIS;
+        }
+    }
+
+    /**
+     * A message captured by the fake server
+     */
+    public static final class Message {
+        private final String channel;
+        private final String account;
+        private final String to;
+        private final String text;
+        private final String code;
+        private final long timestamp = System.currentTimeMillis();
+
+        Message(String channel, String account, String to, String text, String code) {
+            this.channel = channel;
+            this.account = account;
+            this.to = to;
+            this.text = text;
+            this.code = code;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * Account SID, Verify service SID or bot token the message was sent with
+         */
+        public String getAccount() {
+            return account;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        String toJson() {
+            return "{\"channel\":" + quote(channel) + ",\"account\":" + quote(account) + ",\"to\":" + quote(to) + ",\"text\":" + quote(text)
+                + ",\"code\":" + quote(code) + ",\"timestamp\":" + timestamp + "}";
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.mfa.test;
+
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.devtools.FakeProviderServer;
+import com.example.mfa.service.AdaptiveLimiter;
+import com.example.mfa.service.AdaptiveLimiter.Outcome;
+import com.example.mfa.service.TelegramServiceAdapter;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the adaptive upstream limiter and its use by the Telegram adapter
+ */
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void growsOnSuccessAndBacksOffOnThrottle() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100L);
+        int initial = limiter.getLimit();
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(Outcome.SUCCESS, 50L, -1L);
+        }
+        int grown = limiter.getLimit();
+        assertTrue("limit should grow, was " + initial + " now " + grown, grown > initial);
+
+        limiter.acquire();
+        limiter.release(Outcome.THROTTLED, 50L, 10L);
+        assertEquals(grown / 2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void queuesWithinBudgetAndRejectsBeyond() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 200L);
+        limiter.acquire();
+        limiter.release(Outcome.THROTTLED, 10L, 100L);
+
+        // Blocked for 100 ms, which fits the 200 ms budget
+        long start = System.currentTimeMillis();
+        limiter.acquire();
+        assertTrue(System.currentTimeMillis() - start >= 90L);
+        limiter.release(Outcome.THROTTLED, 10L, 5000L);
+
+        // A Retry-After beyond the budget fails fast
+        start = System.currentTimeMillis();
+        try {
+            limiter.acquire();
+            fail("acquire should be rejected while throttled");
+        } catch (AdaptiveLimiter.LimitExceededException expected) {
+            assertTrue(System.currentTimeMillis() - start < 100L);
+        }
+    }
+
+    @Test
+    public void limitsConcurrency() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 5000L);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+            limiter.release(Outcome.OVERLOADED, 10L, -1L);
+        }
+        int limit = limiter.getLimit();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        StressHarness.runConcurrently(16, 8, (thread, iteration) -> {
+            limiter.acquire();
+            try {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Thread.sleep(2);
+                inFlight.decrementAndGet();
+            } finally {
+                limiter.release(Outcome.IGNORED, 2L, -1L);
+            }
+        });
+        assertTrue("max in flight " + maxInFlight.get() + " > limit " + limit, maxInFlight.get() <= limit);
+    }
+
+    @Test
+    public void telegramRetriesOnceAfterRetryAfter() throws Exception {
+        FakeProviderServer server = new FakeProviderServer(0);
+        server.start();
+        try {
+            server.setErrorStatus(429);
+            server.setErrorRate(1.0);
+            MFAConfig config = new MFAConfig.Builder()
+                .setTelegramBotToken("429:fake")
+                .setTelegramBaseUrl(server.getBaseUrl())
+                .build();
+
+            long start = System.currentTimeMillis();
+            try {
+                TelegramServiceAdapter.getInstance(config).sendMessage("424242", "hello");
+                fail("send should fail while throttled");
+            } catch (RuntimeException expected) {
+                // Two attempts, one second apart as asked by retry_after
+                assertTrue(System.currentTimeMillis() - start >= 900L);
+            }
+
+            server.setErrorRate(0.0);
+            server.clearInbox();
+            // The throttle has passed, the next send goes through
+            Thread.sleep(1100L);
+            TelegramServiceAdapter.getInstance(config).sendMessage("424242", "hello");
+            List<FakeProviderServer.Message> inbox = server.getInbox("424242");
+            assertEquals(1, inbox.size());
+        } finally {
+            server.stop();
+        }
+    }
+}
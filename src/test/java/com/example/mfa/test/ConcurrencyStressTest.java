@@ -0,0 +1,242 @@
+package com.example.mfa.test;
+
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.event.AuthEvent;
+import com.example.mfa.event.AuthEventListener;
+import com.example.mfa.event.AuthEventManager;
+import com.example.mfa.factory.MFAProviderFactory;
+import com.example.mfa.provider.MFAProvider;
+import com.example.mfa.service.EmailServiceAdapter;
+import com.example.mfa.service.SmsGateway;
+import com.example.mfa.service.SmsGatewayRegistry;
+import com.example.mfa.service.TelegramServiceAdapter;
+import com.example.mfa.service.TwilioServiceAdapter;
+import com.example.mfa.util.AttemptLimiter;
+import com.example.mfa.util.OTPGenerator;
+import org.junit.Test;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress tests for the singletons and adapters under concurrent, mixed-realm traffic
+ * Realms with an even index have Twilio and Telegram configured, odd ones have not
+ */
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200;
+    private static final int RACE_ROUNDS = 2000;
+    private static final int REALMS = 4;
+    private static final String[] TYPES = {"sms", "telegram", "email", "totp"};
+
+    @Test
+    public void providerFactoryCreatesIsolatedProvidersForMixedRealms() throws Exception {
+        MFAProviderFactory factory = MFAProviderFactory.getInstance();
+        SmsGatewayRegistry registry = SmsGatewayRegistry.getInstance();
+
+        StressHarness.runConcurrently(THREADS, ITERATIONS, (thread, iteration) -> {
+            int realm = (thread + iteration) % REALMS;
+            String type = TYPES[iteration % TYPES.length];
+
+            assertSame(factory, MFAProviderFactory.getInstance());
+            MFAProvider provider = factory.createProvider(type, configModel(realm));
+            assertEquals(type, provider.getType());
+
+            for (SmsGateway gateway : registry.createGateways(config(realm))) {
+                if (TwilioServiceAdapter.ID.equals(gateway.getId())) {
+                    assertEquals("realm " + realm, isConfiguredRealm(realm), gateway.isMessagingConfigured());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void adaptersKeepTheirOwnRealmConfigUnderLoad() throws Exception {
+        StressHarness.runConcurrently(THREADS, ITERATIONS, (thread, iteration) -> {
+            int realm = (thread * 31 + iteration) % REALMS;
+            MFAConfig config = config(realm);
+
+            TwilioServiceAdapter twilio = TwilioServiceAdapter.getInstance(config);
+            TelegramServiceAdapter telegram = TelegramServiceAdapter.getInstance(config);
+            EmailServiceAdapter email = EmailServiceAdapter.getInstance(config);
+
+            assertEquals("realm " + realm, isConfiguredRealm(realm), twilio.isConfigured());
+            assertEquals("realm " + realm, isConfiguredRealm(realm), telegram.isConfigured());
+            assertEquals("Subject " + realm, email.getConfig().getOtpEmailSubject());
+        });
+    }
+
+    @Test
+    public void emailAdaptersCreatedInParallelKeepTheirSubject() throws Exception {
+        Map<String, Integer> outcomes = StressHarness.race(RACE_ROUNDS, SubjectPair::new,
+            pair -> pair.first + "/" + pair.second,
+            pair -> pair.first = EmailServiceAdapter.getInstance(config(0)).getConfig().getOtpEmailSubject(),
+            pair -> pair.second = EmailServiceAdapter.getInstance(config(1)).getConfig().getOtpEmailSubject());
+
+        StressHarness.assertOnly(outcomes, "Subject 0/Subject 1");
+    }
+
+    @Test
+    public void otpGeneratorProducesWellFormedCodesConcurrently() throws Exception {
+        OTPGenerator generator = OTPGenerator.getInstance();
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        int iterations = 5000;
+
+        StressHarness.runConcurrently(THREADS, iterations, (thread, iteration) -> {
+            assertSame(generator, OTPGenerator.getInstance());
+            String code = generator.generateOTP();
+            assertTrue(code, code.matches("\\d{6}"));
+            assertTrue(generator.generateOTP(8).matches("\\d{8}"));
+            codes.add(code);
+        });
+
+        // 40000 draws from a million codes collide about 800 times, far fewer than this bound
+        assertTrue("Too many duplicate codes: " + codes.size(), codes.size() > THREADS * iterations * 95 / 100);
+    }
+
+    @Test
+    public void eventManagerDeliversEveryEventExactlyOnce() throws Exception {
+        AuthEventManager manager = AuthEventManager.getInstance();
+        CountingListener all = new CountingListener(AuthEvent.EventType.values());
+        CountingListener failures = new CountingListener(AuthEvent.EventType.MFA_VERIFICATION_FAILED);
+        AuthEventListener throwing = new CountingListener(AuthEvent.EventType.values()) {
+            @Override
+            public void onEvent(AuthEvent event) {
+                throw new IllegalStateException("Listener failure must not block delivery");
+            }
+        };
+
+        manager.addEventListener(all);
+        manager.addEventListener(throwing);
+        manager.addEventListener(failures);
+        try {
+            AuthEvent.EventType[] types = AuthEvent.EventType.values();
+            StressHarness.runConcurrently(THREADS, ITERATIONS * 5, (thread, iteration) -> {
+                if (thread == 0) {
+                    // Listeners coming and going must not disturb delivery to the others
+                    CountingListener transientListener = new CountingListener(types);
+                    manager.addEventListener(transientListener);
+                    manager.removeEventListener(transientListener);
+                    return;
+                }
+                manager.fireEvent(new AuthEvent.Builder()
+                    .type(types[iteration % types.length])
+                    .mfaMethod(TYPES[thread % TYPES.length])
+                    .details("thread " + thread)
+                    .build());
+            });
+        } finally {
+            manager.removeEventListener(all);
+            manager.removeEventListener(throwing);
+            manager.removeEventListener(failures);
+        }
+
+        int fired = (THREADS - 1) * ITERATIONS * 5;
+        assertEquals(fired, all.total());
+        int failedPerThread = 0;
+        for (int i = 0; i < ITERATIONS * 5; i++) {
+            if (AuthEvent.EventType.values()[i % AuthEvent.EventType.values().length]
+                    == AuthEvent.EventType.MFA_VERIFICATION_FAILED) {
+                failedPerThread++;
+            }
+        }
+        assertEquals((THREADS - 1) * failedPerThread, failures.total());
+    }
+
+    @Test
+    public void attemptLimiterLocksExactlyOnceAndPerRealm() throws Exception {
+        AttemptLimiter limiter = AttemptLimiter.getInstance();
+        // Stands in for the cluster-wide store all nodes share
+        KeycloakSession session = ModelStubs.keycloakSession();
+        String user = "stress-user-" + System.nanoTime();
+        String lockedKey = AttemptLimiter.key("realm-0", user);
+        String otherRealmKey = AttemptLimiter.key("realm-1", user);
+        int threshold = THREADS * 10;
+        AtomicInteger lockingCalls = new AtomicInteger();
+
+        StressHarness.runConcurrently(THREADS, 10, (thread, iteration) -> {
+            if (limiter.recordFailure(session, lockedKey, threshold, 300)) {
+                lockingCalls.incrementAndGet();
+            }
+            assertFalse(limiter.isLocked(session, otherRealmKey));
+        });
+
+        assertEquals(1, lockingCalls.get());
+        assertTrue(limiter.isLocked(session, lockedKey));
+        assertFalse(limiter.isLocked(session, otherRealmKey));
+        // Failures after the lock start a new count
+        assertFalse(limiter.recordFailure(session, lockedKey, threshold, 300));
+        limiter.reset(session, lockedKey);
+        assertFalse(limiter.recordFailure(session, otherRealmKey, 2, 300));
+        limiter.reset(session, otherRealmKey);
+        assertFalse("reset clears earlier failures", limiter.recordFailure(session, otherRealmKey, 2, 300));
+        assertTrue(limiter.recordFailure(session, otherRealmKey, 2, 300));
+    }
+
+    private static boolean isConfiguredRealm(int realm) {
+        return realm % 2 == 0;
+    }
+
+    private static Map<String, String> realmConfig(int realm) {
+        Map<String, String> values = new HashMap<>();
+        values.put(MFAConfig.OTP_EMAIL_SUBJECT, "Subject " + realm);
+        if (isConfiguredRealm(realm)) {
+            values.put(MFAConfig.TWILIO_ACCOUNT_SID, "AC" + realm);
+            values.put(MFAConfig.TWILIO_AUTH_TOKEN, "token-" + realm);
+            values.put(MFAConfig.TWILIO_VERIFY_SERVICE_SID, "VA" + realm);
+            values.put(MFAConfig.TWILIO_FROM_NUMBER, "+1555000000" + realm);
+            values.put(MFAConfig.TELEGRAM_BOT_TOKEN, "bot-" + realm);
+        }
+        return values;
+    }
+
+    private static MFAConfig config(int realm) {
+        return new MFAConfig(realmConfig(realm));
+    }
+
+    private static AuthenticatorConfigModel configModel(int realm) {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setAlias("realm-" + realm);
+        model.setConfig(realmConfig(realm));
+        return model;
+    }
+
+    private static class SubjectPair {
+        volatile String first;
+        volatile String second;
+    }
+
+    private static class CountingListener implements AuthEventListener {
+        private final AuthEvent.EventType[] types;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingListener(AuthEvent.EventType... types) {
+            this.types = types;
+        }
+
+        @Override
+        public void onEvent(AuthEvent event) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public AuthEvent.EventType[] getInterestedEventTypes() {
+            return types;
+        }
+
+        int total() {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.mfa.test;
+
+import com.example.mfa.config.MFAConfig;
+import com.example.mfa.devtools.FakeProviderServer;
+import com.example.mfa.service.TelegramServiceAdapter;
+import com.example.mfa.service.TwilioServiceAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Integration tests of the real Twilio and Telegram client code against the fake provider server
+ */
+public class FakeProviderServerTest {
+
+    private static final String PHONE = "+15550001234";
+    private static final String CHAT_ID = "424242";
+
+    private FakeProviderServer server;
+    private MFAConfig config;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakeProviderServer(0);
+        server.start();
+        config = new MFAConfig.Builder()
+            .setTwilioAccountSid("AC00000000000000000000000000000000")
+            .setTwilioAuthToken("fake-token")
+            .setTwilioVerifyServiceSid("VA00000000000000000000000000000000")
+            .setTwilioFromNumber("+15550009999")
+            .setTwilioBaseUrl(server.getBaseUrl())
+            .setTelegramBotToken("123:fake")
+            .setTelegramBaseUrl(server.getBaseUrl())
+            .build();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void twilioVerifyRoundTrip() throws Exception {
+        TwilioServiceAdapter twilio = TwilioServiceAdapter.getInstance(config);
+        twilio.warmUp();
+        twilio.sendVerificationCode(PHONE, null);
+
+        String code = server.getLatestCode(PHONE);
+        assertNotNull(code);
+        String wrong = code.equals("000000") ? "111111" : "000000";
+
+        assertEquals(TwilioServiceAdapter.STATUS_PENDING, twilio.checkVerification(PHONE, wrong));
+        assertEquals(TwilioServiceAdapter.STATUS_APPROVED, twilio.checkVerification(PHONE, code));
+        // Approved verifications are gone, as with Twilio
+        assertEquals(TwilioServiceAdapter.STATUS_NOT_FOUND, twilio.checkVerification(PHONE, code));
+    }
+
+    @Test
+    public void twilioMessagesAndTelegramLandInInbox() throws Exception {
+        TwilioServiceAdapter.getInstance(config).sendMessage(PHONE, "Your verification code is: 654321");
+        TelegramServiceAdapter telegram = TelegramServiceAdapter.getInstance(config);
+        telegram.warmUp();
+        telegram.sendVerificationCode(CHAT_ID, "123456");
+
+        assertEquals("654321", server.getLatestCode(PHONE));
+        assertEquals("123456", server.getLatestCode(CHAT_ID));
+        assertEquals("telegram", server.getInbox(CHAT_ID).get(0).getChannel());
+    }
+
+    @Test
+    public void concurrentSendsForTwoRealmsUseTheirOwnCredentials() throws Exception {
+        MFAConfig[] configs = {config, new MFAConfig.Builder()
+            .setTwilioAccountSid("AC11111111111111111111111111111111")
+            .setTwilioAuthToken("other-token")
+            .setTwilioVerifyServiceSid("VA11111111111111111111111111111111")
+            .setTwilioFromNumber("+15550008888")
+            .setTwilioBaseUrl(server.getBaseUrl())
+            .setTelegramBotToken("456:other")
+            .setTelegramBaseUrl(server.getBaseUrl())
+            .build()};
+        String[] twilioAccounts = {"AC00000000000000000000000000000000", "AC11111111111111111111111111111111"};
+        String[] botTokens = {"123:fake", "456:other"};
+        int threads = 4;
+        int iterations = 10;
+
+        StressHarness.runConcurrently(threads, iterations, (thread, iteration) -> {
+            int realm = thread % 2;
+            String recipient = realm + "-" + thread + "-" + iteration;
+            TwilioServiceAdapter.getInstance(configs[realm]).sendMessage(recipient, "Your verification code is: 123456");
+            TelegramServiceAdapter.getInstance(configs[realm]).sendVerificationCode(recipient, "123456");
+        });
+
+        List<FakeProviderServer.Message> inbox = server.getInbox(null);
+        assertEquals(threads * iterations * 2, inbox.size());
+        for (FakeProviderServer.Message message : inbox) {
+            int realm = message.getTo().charAt(0) - '0';
+            String expected = "telegram".equals(message.getChannel()) ? botTokens[realm] : twilioAccounts[realm];
+            assertEquals(message.getTo(), expected, message.getAccount());
+        }
+    }
+
+    @Test
+    public void injectedErrorsAndLatencyReachTheClient() throws Exception {
+        server.setErrorRate(1.0);
+        try {
+            TwilioServiceAdapter.getInstance(config).sendVerificationCode(PHONE, null);
+            fail("Injected Twilio error was not reported");
+        } catch (RuntimeException expected) {
+            // Adapter wraps the API error
+        }
+        try {
+            TelegramServiceAdapter.getInstance(config).sendVerificationCode(CHAT_ID, "123456");
+            fail("Injected Telegram error was not reported");
+        } catch (RuntimeException expected) {
+            // Adapter wraps the API error
+        }
+        assertTrue(server.getInbox(null).isEmpty());
+
+        server.setErrorRate(0.0);
+        server.setLatencyMillis(200);
+        long start = System.currentTimeMillis();
+        TelegramServiceAdapter.getInstance(config).sendVerificationCode(CHAT_ID, "123456");
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.mfa.test;
+
+import com.example.mfa.util.MFAFlowState;
+import com.example.mfa.util.MFAFlowState.Field;
+import org.junit.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the encoded auth-note size of the single flow state note with the separate notes it replaced
+ */
+public class MFAFlowStateBenchmarkTest {
+
+    private static final String SENT_AT = "1760889600000";
+
+    @Test
+    public void singleNoteIsSmallerThanSeparateNotes() {
+        // Notes of an SMS login waiting for its code after one failed attempt
+        Map<String, String> legacy = new HashMap<>();
+        legacy.put("auth_state", "CODE_VALIDATION");
+        legacy.put("chosen_method", "sms");
+        legacy.put("failed_attempts", "1");
+        legacy.put("code_sent", "sms:" + SENT_AT);
+        legacy.put("otp_code", "493027");
+        legacy.put("sms_gateway", "twilio:L");
+        legacy.put("sms_verify_outcome", "D:" + SENT_AT + ":Jd4x0VQq2yUuFQ7b3mGSkzY6Xz3yDq8cK8mC0eXq0uQ");
+
+        MFAFlowState state = MFAFlowState.decode(null)
+            .set(Field.STATE, "V")
+            .set(Field.METHOD, "sms")
+            .setInt(Field.FAILED_ATTEMPTS, 1)
+            .set(Field.CODE_SENT, "sms:" + SENT_AT)
+            .set(Field.OTP_CODE, "493027")
+            .set(Field.SMS_GATEWAY, "twilio:L")
+            .set(Field.SMS_VERIFY_OUTCOME, "D:" + SENT_AT + ":Jd4x0VQq2yUuFQ7b3mGSkzY6Xz3yDq8cK8mC0eXq0uQ");
+        Map<String, String> compact = new HashMap<>();
+        compact.put(MFAFlowState.NOTE, state.encode());
+
+        int legacySize = protobufSize(legacy);
+        int compactSize = protobufSize(compact);
+        assertTrue(compactSize + " bytes vs " + legacySize, compactSize < legacySize);
+    }
+
+    @Test
+    public void roundTripsEscapedValues() {
+        String encoded = MFAFlowState.decode(null)
+            .set(Field.METHOD, "a|b\\c")
+            .set(Field.TOTP_CREDENTIAL, "")
+            .set(Field.SMS_GATEWAY, "gw:R")
+            .encode();
+
+        MFAFlowState decoded = MFAFlowState.decode(encoded);
+        assertEquals("a|b\\c", decoded.get(Field.METHOD));
+        assertEquals("", decoded.get(Field.TOTP_CREDENTIAL));
+        assertEquals("gw:R", decoded.get(Field.SMS_GATEWAY));
+        assertNull(decoded.get(Field.OTP_CODE));
+    }
+
+    @Test
+    public void writesNoteOnlyWhenChanged() {
+        Map<String, String> notes = new HashMap<>();
+        AtomicInteger writes = new AtomicInteger();
+        AuthenticationSessionModel authSession = ModelStubs.authSession(notes, writes);
+
+        MFAFlowState.get(authSession).set(Field.METHOD, "email");
+        MFAFlowState.get(authSession).set(Field.METHOD, "email");
+        MFAFlowState.get(authSession).remove(Field.FAILED_ATTEMPTS);
+        assertEquals(1, writes.get());
+
+        MFAFlowState.get(authSession).remove(Field.METHOD);
+        assertEquals(2, writes.get());
+        assertTrue(notes.isEmpty());
+    }
+
+    @Test
+    public void decodesOncePerRequest() {
+        Map<String, String> notes = new HashMap<>();
+        AuthenticationSessionModel authSession = ModelStubs.authSession(notes, new AtomicInteger());
+        KeycloakSession session = ModelStubs.keycloakSession();
+        AuthenticationFlowContext context = ModelStubs.flowContext(session, authSession);
+
+        MFAFlowState state = MFAFlowState.get(context).set(Field.METHOD, "sms");
+        assertSame(state, MFAFlowState.get(context));
+
+        // A note changed behind the cached state, as on a flow reset, is decoded again
+        notes.remove(MFAFlowState.NOTE);
+        MFAFlowState reset = MFAFlowState.get(context);
+        assertNotSame(state, reset);
+        assertNull(reset.get(Field.METHOD));
+
+        // The next request decodes the stored note
+        reset.set(Field.METHOD, "email");
+        MFAFlowState next = MFAFlowState.get(ModelStubs.flowContext(ModelStubs.keycloakSession(), authSession));
+        assertNotSame(reset, next);
+        assertEquals("email", next.get(Field.METHOD));
+    }
+
+    /**
+     * Size of the notes encoded as a protobuf map<string, string>, the wire format ProtoStream uses
+     * for the auth notes of a replicated authentication session
+     */
+    private static int protobufSize(Map<String, String> notes) {
+        int size = 0;
+        for (Map.Entry<String, String> note : notes.entrySet()) {
+            int entry = stringFieldSize(note.getKey()) + stringFieldSize(note.getValue());
+            size += 1 + varintSize(entry) + entry;
+        }
+        return size;
+    }
+
+    private static int stringFieldSize(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        return 1 + varintSize(length) + length;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+}
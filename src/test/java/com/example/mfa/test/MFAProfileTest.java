@@ -0,0 +1,81 @@
+package com.example.mfa.test;
+
+import com.example.mfa.util.MFAProfile;
+import com.example.mfa.util.MFAProfile.Field;
+import org.junit.Test;
+import org.keycloak.models.UserModel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the single-attribute MFA profile and its migration from separate attributes
+ */
+public class MFAProfileTest {
+
+    @Test
+    public void migratesSeparateAttributesOnFirstRead() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(MFAProfile.PHONE_NUMBER_ATTRIBUTE, "+4915112345678");
+        attributes.put(MFAProfile.TELEGRAM_ID_ATTRIBUTE, "123456789");
+        UserModel user = ModelStubs.user(attributes);
+
+        MFAProfile profile = MFAProfile.get(user, true);
+
+        assertTrue(profile.isStored());
+        assertEquals("+4915112345678", profile.get(Field.PHONE_NUMBER));
+        assertEquals("123456789", profile.get(Field.TELEGRAM_ID));
+        assertEquals("only the profile attribute should remain", 1, attributes.size());
+        assertTrue(attributes.get(MFAProfile.ATTRIBUTE).startsWith("v1|"));
+    }
+
+    @Test
+    public void keepsSeparateAttributesWithoutMigration() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(MFAProfile.PHONE_NUMBER_ATTRIBUTE, "+4915112345678");
+        UserModel user = ModelStubs.user(attributes);
+
+        MFAProfile profile = MFAProfile.get(user, false);
+        profile.set(Field.PREFERRED_METHOD, "sms");
+        profile.markEnrolled("sms");
+
+        assertFalse(profile.isStored());
+        assertEquals("+4915112345678", profile.get(Field.PHONE_NUMBER));
+        assertEquals("sms", attributes.get(MFAProfile.PREFERRED_METHOD_ATTRIBUTE));
+        assertNull(attributes.get(MFAProfile.ATTRIBUTE));
+    }
+
+    @Test
+    public void federatedUsersAreNotMigrated() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(MFAProfile.PHONE_NUMBER_ATTRIBUTE, "+4915112345678");
+        UserModel user = ModelStubs.user(attributes, "ldap");
+
+        MFAProfile profile = MFAProfile.get(user, true);
+
+        assertFalse(profile.isStored());
+        assertNull(attributes.get(MFAProfile.ATTRIBUTE));
+        // Reads follow the federated attribute
+        attributes.put(MFAProfile.PHONE_NUMBER_ATTRIBUTE, "+4915187654321");
+        assertEquals("+4915187654321", profile.get(Field.PHONE_NUMBER));
+    }
+
+    @Test
+    public void storedProfileRoundTripsEscapedValues() {
+        Map<String, String> attributes = new HashMap<>();
+        UserModel user = ModelStubs.user(attributes);
+        MFAProfile.get(user, true).set(Field.TELEGRAM_ID, "a|b\\c");
+        MFAProfile.get(user, false).markEnrolled("telegram");
+
+        MFAProfile reloaded = MFAProfile.get(ModelStubs.user(attributes), false);
+        assertTrue(reloaded.isStored());
+        assertEquals("a|b\\c", reloaded.get(Field.TELEGRAM_ID));
+        assertTrue(reloaded.get(Field.TELEGRAM_ENROLLED) != null);
+        assertNull(reloaded.get(Field.PHONE_NUMBER));
+    }
+}
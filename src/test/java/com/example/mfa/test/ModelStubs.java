@@ -0,0 +1,128 @@
+package com.example.mfa.test;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Map-backed stubs of the Keycloak models used by the tests
+ * Only the methods a stub lists are implemented, any other call throws UnsupportedOperationException
+ */
+public final class ModelStubs {
+
+    private ModelStubs() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Implementation of one stubbed method
+     */
+    public interface Method {
+        Object invoke(Object[] args) throws Exception;
+    }
+
+    /**
+     * Create a stub of an interface from its method implementations, keyed by method name
+     */
+    public static <T> T stub(Class<T> type, Map<String, Method> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> {
+                Method implementation = methods.get(method.getName());
+                if (implementation == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return implementation.invoke(args);
+            }));
+    }
+
+    /**
+     * An authentication session backed by a map of auth notes, counting note writes
+     */
+    public static AuthenticationSessionModel authSession(Map<String, String> notes, AtomicInteger writes) {
+        Map<String, Method> methods = new HashMap<>();
+        methods.put("getAuthNote", args -> notes.get((String) args[0]));
+        methods.put("setAuthNote", args -> {
+            writes.incrementAndGet();
+            return notes.put((String) args[0], (String) args[1]);
+        });
+        methods.put("removeAuthNote", args -> {
+            writes.incrementAndGet();
+            return notes.remove((String) args[0]);
+        });
+        return stub(AuthenticationSessionModel.class, methods);
+    }
+
+    /**
+     * A Keycloak session with request attributes and its own single-use object store
+     */
+    public static KeycloakSession keycloakSession() {
+        Map<String, Object> attributes = new HashMap<>();
+        SingleUseObjectProvider singleUseObjects = singleUseObjects();
+        Map<String, Method> methods = new HashMap<>();
+        methods.put("singleUseObjects", args -> singleUseObjects);
+        methods.put("getAttribute", args -> args.length > 1
+            ? ((Class<?>) args[1]).cast(attributes.get((String) args[0])) : attributes.get((String) args[0]));
+        methods.put("setAttribute", args -> attributes.put((String) args[0], args[1]));
+        methods.put("removeAttribute", args -> attributes.remove((String) args[0]));
+        return stub(KeycloakSession.class, methods);
+    }
+
+    /**
+     * A thread-safe single-use object store, lifespans are ignored
+     */
+    public static SingleUseObjectProvider singleUseObjects() {
+        Map<String, Map<String, String>> objects = new ConcurrentHashMap<>();
+        Map<String, Method> methods = new HashMap<>();
+        methods.put("put", args -> objects.put((String) args[0], castNotes(args[2])));
+        methods.put("get", args -> objects.get((String) args[0]));
+        methods.put("remove", args -> objects.remove((String) args[0]));
+        methods.put("replace", args -> objects.replace((String) args[0], castNotes(args[1])) != null);
+        methods.put("putIfAbsent", args -> objects.putIfAbsent((String) args[0], new HashMap<>()) == null);
+        methods.put("contains", args -> objects.containsKey((String) args[0]));
+        return stub(SingleUseObjectProvider.class, methods);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> castNotes(Object notes) {
+        return (Map<String, String>) notes;
+    }
+
+    /**
+     * A flow context exposing a session and an authentication session
+     */
+    public static AuthenticationFlowContext flowContext(KeycloakSession session, AuthenticationSessionModel authSession) {
+        Map<String, Method> methods = new HashMap<>();
+        methods.put("getSession", args -> session);
+        methods.put("getAuthenticationSession", args -> authSession);
+        return stub(AuthenticationFlowContext.class, methods);
+    }
+
+    /**
+     * A local user backed by a map of single-valued attributes
+     */
+    public static UserModel user(Map<String, String> attributes) {
+        return user(attributes, null);
+    }
+
+    /**
+     * A user backed by a map of single-valued attributes, linked to a federation provider unless null
+     */
+    public static UserModel user(Map<String, String> attributes, String federationLink) {
+        Map<String, Method> methods = new HashMap<>();
+        methods.put("getFederationLink", args -> federationLink);
+        methods.put("getId", args -> "user-1");
+        methods.put("getUsername", args -> "alice");
+        methods.put("getFirstAttribute", args -> attributes.get((String) args[0]));
+        methods.put("setSingleAttribute", args -> attributes.put((String) args[0], (String) args[1]));
+        methods.put("removeAttribute", args -> attributes.remove((String) args[0]));
+        return stub(UserModel.class, methods);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.mfa.test;
+
+import com.example.mfa.service.OutboundScheduler;
+import com.example.mfa.service.OutboundScheduler.Priority;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the per-realm fair outbound scheduler
+ */
+public class OutboundSchedulerTest {
+
+    @Test
+    public void busyRealmDoesNotDelayOtherRealms() throws Exception {
+        OutboundScheduler scheduler = new OutboundScheduler(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+
+        OutboundScheduler.Permit held = scheduler.acquire("blocker", Priority.LOGIN, 1, 0);
+        for (int i = 0; i < 5; i++) {
+            threads.add(enqueue(scheduler, "storm", Priority.LOGIN, 1, order));
+        }
+        threads.add(enqueue(scheduler, "quiet", Priority.LOGIN, 1, order));
+        held.close();
+        join(threads);
+
+        assertEquals("quiet realm should be served right after the storm's first send", "quiet", order.get(1));
+    }
+
+    @Test
+    public void loginCodesGoAheadOfNotifications() throws Exception {
+        OutboundScheduler scheduler = new OutboundScheduler(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+
+        OutboundScheduler.Permit held = scheduler.acquire("realm", Priority.LOGIN, 1, 0);
+        threads.add(enqueue(scheduler, "notification", Priority.NOTIFICATION, 1, order));
+        threads.add(enqueue(scheduler, "enrollment", Priority.ENROLLMENT, 1, order));
+        threads.add(enqueue(scheduler, "login", Priority.LOGIN, 1, order));
+        held.close();
+        join(threads);
+
+        assertEquals(List.of("login", "enrollment", "notification"), order);
+    }
+
+    @Test
+    public void capLimitsRealmEvenWithFreeSlots() throws Exception {
+        OutboundScheduler scheduler = new OutboundScheduler(4);
+        OutboundScheduler.Permit first = scheduler.acquire("capped", Priority.LOGIN, 1, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread waiting = enqueue(scheduler, "capped", Priority.LOGIN, 1, order);
+
+        assertEquals(1, scheduler.getInUse());
+        scheduler.acquire("other", Priority.LOGIN, 1, 1).close();
+        assertEquals("capped realm must wait for its own slot", 0, order.size());
+
+        first.close();
+        join(List.of(waiting));
+        assertEquals(List.of("capped"), order);
+    }
+
+    /**
+     * Start a thread that waits for a slot, records its name and releases at once
+     * Returns once the thread is queued
+     */
+    private static Thread enqueue(OutboundScheduler scheduler, String name, Priority priority, int weight,
+                                  List<String> order) throws InterruptedException {
+        int queued = scheduler.getQueued();
+        Thread thread = new Thread(() -> {
+            try (OutboundScheduler.Permit permit = scheduler.acquire(name, priority, weight, 1)) {
+                order.add(name);
+            } catch (OutboundScheduler.QueueTimeoutException e) {
+                order.add("timeout:" + name);
+            }
+        });
+        thread.start();
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (scheduler.getQueued() == queued) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("thread " + name + " was not queued");
+            }
+            Thread.sleep(1L);
+        }
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(5000L);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.mfa.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Small harness for concurrency stress tests
+ * Offers multi-threaded load with a common start gate, and jcstress-style races where
+ * actors run against fresh shared state each round and an arbiter classifies the outcome
+ */
+public final class StressHarness {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private StressHarness() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Body of a load thread, called once per iteration
+     */
+    public interface Task {
+        void run(int thread, int iteration) throws Exception;
+    }
+
+    /**
+     * Actor of a race, working on the round's shared state
+     */
+    public interface Actor<S> {
+        void act(S state) throws Exception;
+    }
+
+    /**
+     * Run the task on all threads at once, failing with the first error seen
+     */
+    public static void runConcurrently(int threads, int iterations, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        task.run(thread, i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Race the actors against fresh state for the given number of rounds
+     * Returns how often each outcome reported by the arbiter was observed
+     */
+    @SafeVarargs
+    public static <S, R> Map<R, Integer> race(int rounds, Supplier<S> stateFactory, Function<S, R> arbiter,
+                                              Actor<S>... actors) throws Exception {
+        Map<R, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(actors.length);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                S state = stateFactory.get();
+                CyclicBarrier barrier = new CyclicBarrier(actors.length);
+                List<Future<?>> futures = new ArrayList<>();
+                for (Actor<S> actor : actors) {
+                    futures.add(executor.submit(() -> {
+                        barrier.await();
+                        actor.act(state);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                outcomes.computeIfAbsent(arbiter.apply(state), key -> new AtomicInteger()).incrementAndGet();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<R, Integer> result = new ConcurrentHashMap<>();
+        outcomes.forEach((outcome, count) -> result.put(outcome, count.get()));
+        return result;
+    }
+
+    /**
+     * Fail if any outcome other than the acceptable ones was observed
+     */
+    @SafeVarargs
+    public static <R> void assertOnly(Map<R, Integer> outcomes, R... acceptable) {
+        Map<R, Integer> forbidden = new ConcurrentHashMap<>(outcomes);
+        for (R outcome : acceptable) {
+            forbidden.remove(outcome);
+        }
+        if (!forbidden.isEmpty()) {
+            fail("Forbidden outcomes observed: " + forbidden + " (all: " + outcomes + ")");
+        }
+    }
+}